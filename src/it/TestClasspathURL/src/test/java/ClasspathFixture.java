@@ -0,0 +1,144 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.infrastructurebuilder.util.core.fs.ClasspathFileStore;
+import org.infrastructurebuilder.util.core.fs.ClasspathFilesystemProvider;
+
+/**
+ * Classpaths for the tests, built in a temporary directory: jars, directories, and lean filesystems over them
+ */
+final class ClasspathFixture {
+
+  interface Check {
+    boolean done() throws Exception;
+  }
+
+  private ClasspathFixture() {
+  }
+
+  /**
+   * @param file             the jar to write
+   * @param namesAndContents entry names, each followed by its content as UTF-8 text. Entries are DEFLATED
+   * @return {@code file}
+   */
+  static Path jar(Path file, String... namesAndContents) throws IOException {
+    try (ZipOutputStream z = new ZipOutputStream(Files.newOutputStream(file))) {
+      for (int i = 0; i < namesAndContents.length; i += 2)
+        put(z, namesAndContents[i], namesAndContents[i + 1].getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+    }
+    return file;
+  }
+
+  /**
+   * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+   */
+  static void put(ZipOutputStream z, String name, byte[] content, int method) throws IOException {
+    ZipEntry e = new ZipEntry(name);
+    e.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      e.setSize(content.length);
+      e.setCompressedSize(content.length);
+      e.setCrc(crc.getValue());
+    }
+    z.putNextEntry(e);
+    z.write(content);
+    z.closeEntry();
+  }
+
+  /**
+   * @param dir              where to write
+   * @param namesAndContents file paths below {@code dir}, each followed by its content as UTF-8 text
+   * @return {@code dir}
+   */
+  static Path dir(Path dir, String... namesAndContents) throws IOException {
+    Files.createDirectories(dir);
+    for (int i = 0; i < namesAndContents.length; i += 2) {
+      Path f = dir.resolve(namesAndContents[i]);
+      Files.createDirectories(f.getParent());
+      Files.writeString(f, namesAndContents[i + 1], StandardCharsets.UTF_8);
+    }
+    return dir;
+  }
+
+  /**
+   * @param settings further settings, as key and value pairs
+   * @param elements the classpath
+   * @return a filesystem over {@code elements} with the lean scan engine
+   */
+  static FileSystem open(Map<String, Object> settings, Path... elements) throws IOException {
+    Map<String, Object> env = new HashMap<>(settings);
+    env.putIfAbsent("scanEngine", "lean");
+    env.put("overrideClasspath",
+        Arrays.stream(elements).map(Path::toString).collect(Collectors.joining(File.pathSeparator)));
+    return new ClasspathFilesystemProvider().newFileSystem(URI.create("classpath:/"), env);
+  }
+
+  static ClasspathFileStore store(FileSystem fs) {
+    return (ClasspathFileStore) fs.getFileStores().iterator().next();
+  }
+
+  /**
+   * @return the content of {@code path} as UTF-8 text, or null if there is no such resource
+   */
+  static String content(FileSystem fs, String path) throws IOException {
+    ClasspathFileStore store = store(fs);
+    if (store.getEntry(path).isEmpty())
+      return null;
+    return new String(store.readAllBytes(path), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Wait for something another thread does, such as applying a watched change. A check that throws has not passed yet
+   * (a file deleted after the index was consulted but before the change was applied)
+   */
+  static void await(String what, Check check) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    for (;;) {
+      Exception last = null;
+      try {
+        if (check.done())
+          return;
+      } catch (Exception e) {
+        last = e;
+      }
+      if (System.nanoTime() > deadline)
+        fail("Timed out waiting for %s%s".formatted(what, last == null ? "" : ": " + last));
+      Thread.sleep(50);
+    }
+  }
+
+}
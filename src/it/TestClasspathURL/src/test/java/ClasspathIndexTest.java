@@ -0,0 +1,118 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.infrastructurebuilder.util.core.fs.ClasspathEntry;
+import org.infrastructurebuilder.util.core.fs.ClasspathIndex;
+import org.infrastructurebuilder.util.core.fs.ElementEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ClasspathIndexTest {
+
+  private static final File ELEMENT = new File("target/classes");
+
+  private List<String> expected;
+  private ClasspathIndex index;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    // Paths sharing long prefixes, none, or all of a predecessor, multi-byte and supplementary characters, enough to
+    // fill several 16 path blocks and end in a partial one
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < 40; ++i)
+      paths.add("org/example/deeply/nested/pkg%02d/Type%d.class".formatted(i / 7, i));
+    paths.add("a");
+    paths.add("ab");
+    paths.add("abc/d.txt");
+    paths.add("META-INF/MANIFEST.MF");
+    paths.add("r\u00e9sum\u00e9/caf\u00e9.txt");
+    paths.add("r\u00e9sum\u00e9/caf\u00e9s.txt");
+    paths.add("\u65e5\u672c/\u8a9e.properties");
+    paths.add("\ud83d\ude00/emoji.txt");
+    paths.add("\uffee/halfwidth.txt");
+    paths.add("z".repeat(300));
+    paths.add("z".repeat(300) + "/x");
+    List<ClasspathEntry> entries = new ArrayList<>();
+    for (String p : paths)
+      entries.add(ElementEntry.ofFile(ELEMENT, p, p.length()));
+    index = ClasspathIndex.merge(List.<ClasspathEntry[]> of(ClasspathIndex.sortSegment(entries)));
+    // Code point order is the unsigned byte order of UTF-8
+    expected = new ArrayList<>(paths);
+    expected.sort(ClasspathIndexTest::compare);
+  }
+
+  private static int compare(String x, String y) {
+    return Arrays.compareUnsigned(x.getBytes(StandardCharsets.UTF_8), y.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private int expectedLowerBound(String key) {
+    return (int) expected.stream().filter(p -> compare(p, key) < 0).count();
+  }
+
+  @Test
+  void testEveryPathRoundTrips() {
+    assertEquals(expected.size(), index.size());
+    assertTrue(index.size() > 3 * 16, "spans several blocks");
+    for (int id = 0; id < expected.size(); ++id) {
+      String p = expected.get(id);
+      assertEquals(p, index.getPath(id), "id " + id);
+      assertEquals(id, index.find(p), p);
+      assertEquals(p, index.getEntry(id).getPath());
+      assertEquals(p.length(), index.getLength(id));
+      assertTrue(index.get(p).isPresent(), p);
+    }
+  }
+
+  @Test
+  void testIterationCrossesBlocks() {
+    List<String> l = new ArrayList<>();
+    for (Iterator<String> i = index.paths(); i.hasNext();)
+      l.add(i.next());
+    assertEquals(expected, l);
+  }
+
+  @Test
+  void testMissesAndLowerBounds() {
+    for (int id = 0; id < expected.size(); ++id) {
+      String p = expected.get(id);
+      // Just before and just after a stored path, which land inside a block or on its boundary
+      String before = p.substring(0, p.length() - 1);
+      String after = p + "\u0000";
+      if (!expected.contains(before)) {
+        assertTrue(index.find(before) < 0, before);
+        assertFalse(index.get(before).isPresent(), before);
+        assertEquals(expectedLowerBound(before), index.lowerBound(before), before);
+      }
+      assertTrue(index.find(after) < 0, after);
+      assertEquals(id + 1, index.lowerBound(after), after);
+    }
+    assertEquals(0, index.lowerBound(""));
+    assertEquals(expected.size(), index.lowerBound("\udbff\udfff"));
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import org.infrastructurebuilder.util.core.fs.ClasspathServices;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ClasspathWatchTest {
+
+  @TempDir
+  Path root;
+
+  private Path dir;
+  private Path jar;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    dir = ClasspathFixture.dir(root.resolve("dir"), "a/keep.txt", "keep");
+    jar = ClasspathFixture.jar(root.resolve("lib.jar"), "a/x.txt", "from jar", "a/y.txt", "also from jar");
+  }
+
+  private FileSystem open() throws Exception {
+    return ClasspathFixture.open(Map.of("watch", "true"), dir, jar);
+  }
+
+  private static String content(FileSystem fs, String path) throws Exception {
+    return ClasspathFixture.content(fs, path);
+  }
+
+  private static void await(FileSystem fs, String path, String expected) throws Exception {
+    ClasspathFixture.await("%s to be %s".formatted(path, expected),
+        () -> Objects.equals(expected, content(fs, path)));
+  }
+
+  @Test
+  void testShadowAndRestore() throws Exception {
+    try (FileSystem fs = open()) {
+      assertEquals("from jar", content(fs, "a/x.txt"));
+      Files.writeString(dir.resolve("a/x.txt"), "from dir", StandardCharsets.UTF_8);
+      await(fs, "a/x.txt", "from dir");
+      Files.delete(dir.resolve("a/x.txt"));
+      await(fs, "a/x.txt", "from jar");
+    }
+  }
+
+  @Test
+  void testAddAndDelete() throws Exception {
+    try (FileSystem fs = open()) {
+      assertEquals(null, content(fs, "a/new.txt"));
+      Files.writeString(dir.resolve("a/new.txt"), "new", StandardCharsets.UTF_8);
+      await(fs, "a/new.txt", "new");
+      Files.createDirectories(dir.resolve("b/c"));
+      Files.writeString(dir.resolve("b/c/deep.txt"), "deep", StandardCharsets.UTF_8);
+      await(fs, "b/c/deep.txt", "deep");
+      Files.delete(dir.resolve("a/new.txt"));
+      await(fs, "a/new.txt", null);
+    }
+  }
+
+  @Test
+  void testDirectoryDeleteRestoresTheJar() throws Exception {
+    try (FileSystem fs = open()) {
+      Files.writeString(dir.resolve("a/y.txt"), "shadowed", StandardCharsets.UTF_8);
+      await(fs, "a/y.txt", "shadowed");
+      try (Stream<Path> s = Files.walk(dir.resolve("a"))) {
+        s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+      await(fs, "a/keep.txt", null);
+      await(fs, "a/y.txt", "also from jar");
+      assertEquals("from jar", content(fs, "a/x.txt"));
+    }
+  }
+
+  private static List<String> providers(FileSystem fs, String service) {
+    return ClasspathFixture.store(fs).getServices().getProviders(service).stream()
+        .map(p -> p.className() + "@" + p.element().getName()).toList();
+  }
+
+  @Test
+  void testServiceFiles() throws Exception {
+    String greeter = ClasspathServices.PREFIX + "com.example.Greeter";
+    ClasspathFixture.dir(dir, greeter, "com.example.A\n");
+    ClasspathFixture.jar(jar, greeter, "com.example.B\n");
+    try (FileSystem fs = open()) {
+      assertEquals(List.of("com.example.A@dir", "com.example.B@lib.jar"), providers(fs, "com.example.Greeter"));
+      Files.writeString(dir.resolve(greeter), "com.example.C # edited\n", StandardCharsets.UTF_8);
+      ClasspathFixture.await("an edited service file",
+          () -> providers(fs, "com.example.Greeter").equals(List.of("com.example.C@dir", "com.example.B@lib.jar")));
+      Files.writeString(dir.resolve(ClasspathServices.PREFIX + "com.example.Other"), "com.example.D\n",
+          StandardCharsets.UTF_8);
+      ClasspathFixture.await("a new service file",
+          () -> providers(fs, "com.example.Other").equals(List.of("com.example.D@dir")));
+      Files.delete(dir.resolve(greeter));
+      ClasspathFixture.await("a deleted service file",
+          () -> providers(fs, "com.example.Greeter").equals(List.of("com.example.B@lib.jar")));
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.infrastructurebuilder.util.core.fs.ClasspathFileStore;
+import org.infrastructurebuilder.util.core.fs.CompressedResource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompressedResourceTest {
+
+  @TempDir
+  Path root;
+
+  private Path dir;
+  private Path jar;
+  private byte[] text;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; b.length() < 200_000; ++i)
+      b.append("line ").append(i).append(" of some compressible text\n");
+    text = b.toString().getBytes(StandardCharsets.UTF_8);
+    dir = ClasspathFixture.dir(root.resolve("dir"), "d/plain.txt", "in a directory");
+    jar = root.resolve("lib.jar");
+    try (ZipOutputStream z = new ZipOutputStream(Files.newOutputStream(jar))) {
+      ClasspathFixture.put(z, "j/deflated.txt", text, ZipEntry.DEFLATED);
+      ClasspathFixture.put(z, "j/stored.txt", text, ZipEntry.STORED);
+    }
+  }
+
+  @Test
+  void testTransferGzipTo() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), dir, jar)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      CompressedResource r = store.getCompressedResource("j/deflated.txt").orElseThrow();
+      assertTrue(r.isDeflated());
+      assertEquals(text.length, r.size());
+      assertTrue(r.compressedSize() < r.size());
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      long n = r.transferGzipTo(Channels.newChannel(out), store.getHandles());
+      assertEquals(out.size(), n);
+      assertEquals(10 + r.compressedSize() + 8, n);
+      try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+        assertArrayEquals(text, in.readAllBytes());
+      }
+      assertEquals(0, store.getHandles().getLeased());
+    }
+  }
+
+  @Test
+  void testStoredIsNotDeflated() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), dir, jar)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      CompressedResource r = store.getCompressedResource("j/stored.txt").orElseThrow();
+      assertFalse(r.isDeflated());
+      assertEquals(r.size(), r.compressedSize());
+      assertThrows(UnsupportedOperationException.class,
+          () -> r.transferGzipTo(Channels.newChannel(new ByteArrayOutputStream()), store.getHandles()));
+    }
+  }
+
+  @Test
+  void testNotInAJar() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), dir, jar)) {
+      assertTrue(ClasspathFixture.store(fs).getCompressedResource("d/plain.txt").isEmpty());
+    }
+  }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.infrastructurebuilder.util.core.fs.ClasspathServices;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Indexes persisted in {@code indexDirectory} are reloaded without scanning while the classpath is unchanged, and
+ * rebuilt once it changes.
+ *
+ * To tell a reload from a rebuild, the jar is swapped for one that declares something else but has the same size and
+ * modification time, which the persisted fingerprint cannot tell apart. Only a reload still reports the old content.
+ * Touching the jar then makes the next filesystem rebuild.
+ */
+class IndexPersistenceTest {
+
+  @TempDir
+  Path root;
+
+  /**
+   * @param entries names, each followed by its content. Entries are STORED, so that equal contents give equal sizes
+   */
+  private static void writeJar(Path jar, Object... entries) throws IOException {
+    try (ZipOutputStream z = new ZipOutputStream(Files.newOutputStream(jar))) {
+      for (int i = 0; i < entries.length; i += 2) {
+        Object c = entries[i + 1];
+        byte[] b = c instanceof byte[] a ? a : c.toString().getBytes(StandardCharsets.UTF_8);
+        ClasspathFixture.put(z, (String) entries[i], b, ZipEntry.STORED);
+      }
+    }
+  }
+
+  /**
+   * Replace {@code jar} with one of the same size and modification time
+   */
+  private static void swap(Path jar, Object... entries) throws IOException {
+    long size = Files.size(jar);
+    FileTime mtime = Files.getLastModifiedTime(jar);
+    writeJar(jar, entries);
+    assertEquals(size, Files.size(jar), "the swapped jar must look the same");
+    Files.setLastModifiedTime(jar, mtime);
+  }
+
+  private static void touch(Path jar) throws IOException {
+    Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 10_000));
+  }
+
+  private static List<String> providers(FileSystem fs) {
+    return ClasspathFixture.store(fs).getServices().getProviders("p.Api").stream()
+        .map(ClasspathServices.Provider::className).toList();
+  }
+
+  private static List<String> implementors(FileSystem fs) {
+    return ClasspathFixture.store(fs).getClassIndex().getClassesImplementing("p.Api");
+  }
+
+  private long indexFiles(Path idx, String name) throws IOException {
+    try (var l = Files.list(idx)) {
+      return l.filter(p -> p.getFileName().toString().startsWith(name + "-")).count();
+    }
+  }
+
+  /**
+   * @param namesAndSources class names, each followed by its source
+   * @return names of class files, each followed by its bytes
+   */
+  private Object[] compile(String... namesAndSources) throws IOException {
+    Path src = Files.createDirectories(root.resolve("src"));
+    Path out = Files.createDirectories(root.resolve("classes"));
+    List<String> args = new ArrayList<>(List.of("-d", out.toString()));
+    for (int i = 0; i < namesAndSources.length; i += 2) {
+      Path f = src.resolve(namesAndSources[i].replace('.', '/') + ".java");
+      Files.createDirectories(f.getParent());
+      Files.writeString(f, namesAndSources[i + 1], StandardCharsets.UTF_8);
+      args.add(f.toString());
+    }
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    assertNotNull(javac, "a JDK is needed to compile the test classes");
+    assertEquals(0, javac.run(null, null, null, args.toArray(String[]::new)));
+    List<Object> r = new ArrayList<>();
+    for (int i = 0; i < namesAndSources.length; i += 2) {
+      String name = namesAndSources[i].replace('.', '/') + ".class";
+      r.add(name);
+      r.add(Files.readAllBytes(out.resolve(name)));
+    }
+    return r.toArray();
+  }
+
+  @Test
+  void testServicesAreReloaded() throws Exception {
+    Path idx = root.resolve("idx");
+    Path jar = root.resolve("lib.jar");
+    Map<String, Object> settings = Map.of("indexDirectory", idx.toString());
+    writeJar(jar, "META-INF/services/p.Api", "p.ImplA\n");
+    try (FileSystem fs = ClasspathFixture.open(settings, jar)) {
+      assertEquals(List.of("p.ImplA"), providers(fs));
+    }
+    assertEquals(1, indexFiles(idx, "services"));
+
+    swap(jar, "META-INF/services/p.Api", "p.ImplB\n");
+    try (FileSystem fs = ClasspathFixture.open(settings, jar)) {
+      assertEquals(List.of("p.ImplA"), providers(fs), "reloaded, not scanned");
+    }
+
+    touch(jar);
+    try (FileSystem fs = ClasspathFixture.open(settings, jar)) {
+      assertEquals(List.of("p.ImplB"), providers(fs), "rebuilt");
+    }
+    try (FileSystem fs = ClasspathFixture.open(settings, jar)) {
+      assertEquals(List.of("p.ImplB"), providers(fs), "the rebuilt index is persisted");
+    }
+  }
+
+  @Test
+  void testClassIndexIsReloaded() throws Exception {
+    Path idx = root.resolve("idx");
+    Path jar = root.resolve("lib.jar");
+    Map<String, Object> settings = Map.of("indexDirectory", idx.toString(), "scanEngine", "classgraph",
+        "enableClassInfo", "true");
+    Object[] a = compile("p.Api", "package p; public interface Api {}", "p.ImplA",
+        "package p; public class ImplA implements Api {}");
+    Object[] b = compile("p.Api", "package p; public interface Api {}", "p.ImplB",
+        "package p; public class ImplB implements Api {}");
+    writeJar(jar, a);
+    try (FileSystem fs = ClasspathFixture.open(settings, jar)) {
+      assertEquals(List.of("p.ImplA"), implementors(fs));
+    }
+    assertEquals(1, indexFiles(idx, "classes"));
+
+    swap(jar, b);
+    try (FileSystem fs = ClasspathFixture.open(settings, jar)) {
+      assertEquals(List.of("p.ImplA"), implementors(fs), "reloaded, not scanned");
+    }
+
+    touch(jar);
+    try (FileSystem fs = ClasspathFixture.open(settings, jar)) {
+      assertEquals(List.of("p.ImplB"), implementors(fs), "rebuilt");
+    }
+  }
+
+}
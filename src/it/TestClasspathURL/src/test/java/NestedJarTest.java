@@ -0,0 +1,154 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.infrastructurebuilder.util.core.fs.ClasspathFileStore;
+import org.infrastructurebuilder.util.core.fs.CompressedResource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NestedJarTest {
+
+  private static final byte[] STORED_TEXT = "stored in a stored jar".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] DEFLATED_TEXT = "deflated in a stored jar, deflated in a stored jar"
+      .getBytes(StandardCharsets.UTF_8);
+  private static final byte[] FALLBACK_TEXT = "in a deflated jar".getBytes(StandardCharsets.UTF_8);
+
+  @TempDir
+  Path root;
+
+  private Path fat;
+
+  private static byte[] jar(String name1, byte[] content1, int method1, String name2, byte[] content2, int method2)
+      throws Exception {
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    try (ZipOutputStream z = new ZipOutputStream(b)) {
+      ClasspathFixture.put(z, name1, content1, method1);
+      if (name2 != null)
+        ClasspathFixture.put(z, name2, content2, method2);
+    }
+    return b.toByteArray();
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    fat = root.resolve("app.jar");
+    try (ZipOutputStream z = new ZipOutputStream(Files.newOutputStream(fat))) {
+      ClasspathFixture.put(z, "BOOT-INF/classes/app.txt", "app".getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+      ClasspathFixture.put(z, "BOOT-INF/lib/a-stored.jar", jar("n/stored.txt", STORED_TEXT, ZipEntry.STORED,
+          "n/deflated.txt", DEFLATED_TEXT, ZipEntry.DEFLATED), ZipEntry.STORED);
+      ClasspathFixture.put(z, "BOOT-INF/lib/b-deflated.jar",
+          jar("n/fallback.txt", FALLBACK_TEXT, ZipEntry.DEFLATED, null, null, 0), ZipEntry.DEFLATED);
+    }
+  }
+
+  private byte[] region(File f, long offset, long length) throws Exception {
+    ByteBuffer b = ByteBuffer.allocate((int) length);
+    try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      while (b.hasRemaining())
+        if (ch.read(b, offset + b.position()) < 0)
+          break;
+    }
+    return b.array();
+  }
+
+  /**
+   * @return the content of {@code r}, inflated from its bytes as they lie in its element
+   */
+  private byte[] inflate(CompressedResource r) throws Exception {
+    Inflater inf = new Inflater(true);
+    try {
+      inf.setInput(region(r.element(), r.dataOffset(), r.compressedSize()));
+      byte[] out = new byte[(int) r.size()];
+      assertEquals(out.length, inf.inflate(out));
+      return out;
+    } finally {
+      inf.end();
+    }
+  }
+
+  @Test
+  void testStoredInnerJarIsReadInPlace() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), fat)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      assertEquals("app", ClasspathFixture.content(fs, "app.txt"));
+      assertEquals(new String(STORED_TEXT, StandardCharsets.UTF_8), ClasspathFixture.content(fs, "n/stored.txt"));
+      assertEquals(new String(DEFLATED_TEXT, StandardCharsets.UTF_8),
+          ClasspathFixture.content(fs, "n/deflated.txt"));
+      assertEquals(fat.toFile(), store.getEntry("n/stored.txt").orElseThrow().getElementFile());
+
+      // The offsets are into the outer jar
+      CompressedResource s = store.getCompressedResource("n/stored.txt").orElseThrow();
+      assertEquals(fat.toFile(), s.element());
+      assertArrayEquals(STORED_TEXT, region(fat.toFile(), s.dataOffset(), s.size()));
+
+      CompressedResource d = store.getCompressedResource("n/deflated.txt").orElseThrow();
+      assertTrue(d.isDeflated());
+      assertArrayEquals(DEFLATED_TEXT, inflate(d));
+    }
+  }
+
+  @Test
+  void testDeflatedInnerJarFallsBack() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), fat)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      assertEquals(new String(FALLBACK_TEXT, StandardCharsets.UTF_8), ClasspathFixture.content(fs, "n/fallback.txt"));
+      // Inflated to a jar of its own, which it is then read from
+      File element = store.getEntry("n/fallback.txt").orElseThrow().getElementFile();
+      assertNotEquals(fat.toFile(), element);
+      assertTrue(element.isFile());
+      CompressedResource f = store.getCompressedResource("n/fallback.txt").orElseThrow();
+      assertEquals(element, f.element());
+      assertArrayEquals(FALLBACK_TEXT, inflate(f));
+    }
+  }
+
+  @Test
+  void testNamedInnerJars() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), Path.of(fat + "!/BOOT-INF/lib/a-stored.jar"),
+        Path.of(fat + "!/BOOT-INF/lib/b-deflated.jar"))) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      List<File> elements = store.getElements();
+      assertEquals(2, elements.size());
+      assertEquals(new String(STORED_TEXT, StandardCharsets.UTF_8), ClasspathFixture.content(fs, "n/stored.txt"));
+      assertEquals(new String(FALLBACK_TEXT, StandardCharsets.UTF_8), ClasspathFixture.content(fs, "n/fallback.txt"));
+      assertFalse(store.getEntry("app.txt").isPresent());
+    }
+  }
+
+}
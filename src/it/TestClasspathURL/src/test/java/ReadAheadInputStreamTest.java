@@ -0,0 +1,156 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.infrastructurebuilder.util.core.fs.ReadAheadInputStream;
+import org.junit.jupiter.api.Test;
+
+class ReadAheadInputStreamTest {
+
+  /**
+   * Pseudo-random bytes, optionally failing after a given count, that record being closed
+   */
+  private static final class Source extends InputStream {
+    private final byte[] content;
+    private final int failAt;
+    private int pos = 0;
+    volatile boolean closed = false;
+
+    Source(byte[] content, int failAt) {
+      this.content = content;
+      this.failAt = failAt;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (pos == failAt)
+        throw new IOException("Source failed at %d".formatted(pos));
+      if (pos == content.length)
+        return -1;
+      int n = Math.min(len, Math.min(content.length, failAt) - pos);
+      System.arraycopy(content, pos, b, off, n);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  private static byte[] content(int size) {
+    byte[] b = new byte[size];
+    new Random(size).nextBytes(b);
+    return b;
+  }
+
+  /**
+   * Read with single bytes and arrays of varying size, to cross block boundaries every way
+   */
+  private static byte[] drain(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] b = new byte[7919];
+    for (int i = 0;; ++i) {
+      if (i % 3 == 0) {
+        int c = in.read();
+        if (c < 0)
+          break;
+        out.write(c);
+      } else {
+        int n = in.read(b, 0, 1 + (i * 131) % b.length);
+        if (n < 0)
+          break;
+        out.write(b, 0, n);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static void assertByteExact(int depth, int blockSize, int size) throws Exception {
+    byte[] content = content(size);
+    Source src = new Source(content, Integer.MAX_VALUE);
+    try (ReadAheadInputStream in = new ReadAheadInputStream(src, depth, blockSize)) {
+      assertArrayEquals(content, drain(in), "depth %d, block %d, size %d".formatted(depth, blockSize, size));
+      assertEquals(-1, in.read());
+    }
+    ClasspathFixture.await("the source to be closed", () -> src.closed);
+  }
+
+  @Test
+  void testByteExactAtDepthOne() throws Exception {
+    assertByteExact(1, 4096, 1_000_003);
+    assertByteExact(1, 4096, 4096 * 3);
+    assertByteExact(1, 4096, 0);
+  }
+
+  @Test
+  void testByteExactAtDepthN() throws Exception {
+    assertByteExact(8, 4096, 1_000_003);
+    assertByteExact(8, 4096, 4096 * 3);
+    assertByteExact(3, ReadAheadInputStream.DEFAULT_BLOCK_SIZE, 1_000_003);
+  }
+
+  @Test
+  void testSourceFailureSurfaces() throws Exception {
+    byte[] content = content(100_000);
+    Source src = new Source(content, 50_000);
+    try (ReadAheadInputStream in = new ReadAheadInputStream(src, 2, 4096)) {
+      // What was read before the failure is delivered first
+      byte[] b = new byte[50_000];
+      assertEquals(50_000, in.readNBytes(b, 0, b.length));
+      for (int i = 0; i < b.length; ++i)
+        if (b[i] != content[i])
+          throw new AssertionError("Differs at %d".formatted(i));
+      IOException e = assertThrows(IOException.class, () -> in.read());
+      assertTrue(e.getMessage().contains("Source failed at 50000"), e.getMessage());
+    }
+    assertTrue(src.closed);
+  }
+
+  @Test
+  void testCloseMidStream() throws Exception {
+    Source src = new Source(content(10_000_000), Integer.MAX_VALUE);
+    ReadAheadInputStream in = new ReadAheadInputStream(src, 2, 4096);
+    byte[] b = new byte[10_000];
+    assertEquals(b.length, in.readNBytes(b, 0, b.length));
+    in.close();
+    assertThrows(IOException.class, () -> in.read());
+    assertThrows(IOException.class, () -> in.read(b, 0, b.length));
+    assertEquals(0, in.available());
+    // The read-ahead stops, well short of the end, and closes the source
+    ClasspathFixture.await("the source to be closed", () -> src.closed);
+    assertTrue(src.pos < 10_000_000);
+    in.close();
+  }
+
+}
@@ -0,0 +1,297 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.infrastructurebuilder.util.core.fs.ByteBufferPool;
+import org.infrastructurebuilder.util.core.fs.ClasspathFileStore;
+import org.infrastructurebuilder.util.core.fs.ResourcePublisher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResourcePublisherTest {
+
+  // Signals are delivered on the calling thread, so that each request can be checked as soon as it returns
+  private static final Executor DIRECT = Runnable::run;
+
+  @TempDir
+  Path root;
+
+  private Path dir;
+  private Path jar;
+  private byte[] big;
+
+  /**
+   * Records what it is signalled, checking the order of the signals as it goes
+   */
+  private static final class Recorder<T> implements Flow.Subscriber<T> {
+    final List<T> items = Collections.synchronizedList(new ArrayList<>());
+    final List<String> violations = Collections.synchronizedList(new ArrayList<>());
+    final int requestOnNext;
+    volatile Flow.Subscription subscription;
+    volatile Throwable error;
+    volatile boolean complete;
+
+    /**
+     * @param requestOnNext how many more to request from each onNext, 0 to leave requests to the test
+     */
+    Recorder(int requestOnNext) {
+      this.requestOnNext = requestOnNext;
+    }
+
+    boolean terminated() {
+      return complete || error != null;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription s) {
+      if (subscription != null)
+        violations.add("onSubscribe twice");
+      subscription = s;
+      if (requestOnNext > 0)
+        s.request(requestOnNext);
+    }
+
+    @Override
+    public void onNext(T item) {
+      if (subscription == null || terminated())
+        violations.add("onNext out of order");
+      items.add(item);
+      if (requestOnNext > 0)
+        subscription.request(requestOnNext);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      if (terminated())
+        violations.add("onError after a terminal signal");
+      error = t;
+    }
+
+    @Override
+    public void onComplete() {
+      if (terminated())
+        violations.add("onComplete after a terminal signal");
+      complete = true;
+    }
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    big = new byte[ByteBufferPool.shared().getBufferSize() * 3 + 1234];
+    new Random(7).nextBytes(big);
+    dir = ClasspathFixture.dir(root.resolve("dir"), "p/b.txt", "bee", "p/a.txt", "ay");
+    jar = root.resolve("lib.jar");
+    try (ZipOutputStream z = new ZipOutputStream(Files.newOutputStream(jar))) {
+      ClasspathFixture.put(z, "p/z.txt", "zed".getBytes(StandardCharsets.UTF_8), ZipEntry.DEFLATED);
+      ClasspathFixture.put(z, "p/c.txt", "see".getBytes(StandardCharsets.UTF_8), ZipEntry.STORED);
+      ClasspathFixture.put(z, "p/empty.txt", new byte[0], ZipEntry.DEFLATED);
+      ClasspathFixture.put(z, "p/big.bin", big, ZipEntry.DEFLATED);
+    }
+  }
+
+  private static byte[] concat(List<ByteBuffer> l) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (ByteBuffer b : l) {
+      byte[] a = new byte[b.remaining()];
+      b.duplicate().get(a);
+      out.write(a, 0, a.length);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Chunks are only valid until onNext returns, so keep copies
+   */
+  private static Flow.Subscriber<ByteBuffer> copying(Recorder<ByteBuffer> r) {
+    return new Flow.Subscriber<>() {
+      @Override
+      public void onSubscribe(Flow.Subscription s) {
+        r.onSubscribe(s);
+      }
+
+      @Override
+      public void onNext(ByteBuffer item) {
+        ByteBuffer c = ByteBuffer.allocate(item.remaining());
+        c.put(item.duplicate()).flip();
+        r.onNext(c);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        r.onError(t);
+      }
+
+      @Override
+      public void onComplete() {
+        r.onComplete();
+      }
+    };
+  }
+
+  @Test
+  void testRequestIsHonoured() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), dir, jar)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      Recorder<ByteBuffer> r = new Recorder<>(0);
+      store.publish("p/big.bin", DIRECT).subscribe(copying(r));
+      assertEquals(0, r.items.size(), "nothing before a request");
+      r.subscription.request(2);
+      assertEquals(2, r.items.size());
+      assertFalse(r.terminated());
+      r.subscription.request(1);
+      assertEquals(3, r.items.size());
+      assertFalse(r.terminated());
+      // The fourth is the last, and completion needs no demand
+      r.subscription.request(1);
+      assertEquals(4, r.items.size());
+      assertTrue(r.complete);
+      assertNull(r.error);
+      assertArrayEquals(big, concat(r.items));
+      r.subscription.request(10);
+      assertEquals(4, r.items.size());
+      assertEquals(List.of(), r.violations);
+    }
+  }
+
+  @Test
+  void testNothingToPublishCompletes() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), dir, jar)) {
+      Recorder<ResourcePublisher.Part> r = new Recorder<>(0);
+      ClasspathFixture.store(fs).publishAll("q/*", DIRECT).subscribe(r);
+      assertTrue(r.complete, "without a request");
+      assertEquals(0, r.items.size());
+      assertEquals(List.of(), r.violations);
+    }
+  }
+
+  @Test
+  void testCancel() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), dir, jar)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      Recorder<ByteBuffer> r = new Recorder<>(0);
+      store.publish("p/big.bin", DIRECT).subscribe(copying(r));
+      r.subscription.request(1);
+      r.subscription.cancel();
+      r.subscription.request(Long.MAX_VALUE);
+      r.subscription.cancel();
+      assertEquals(1, r.items.size());
+      assertFalse(r.terminated(), "no signal follows a cancel");
+      assertEquals(List.of(), r.violations);
+    }
+  }
+
+  @Test
+  void testNonPositiveRequestIsAnError() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), dir, jar)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      for (long n : new long[] { 0L, -1L, Long.MIN_VALUE }) {
+        Recorder<ByteBuffer> r = new Recorder<>(0);
+        store.publish("p/big.bin", DIRECT).subscribe(copying(r));
+        r.subscription.request(1);
+        r.subscription.request(n);
+        assertTrue(r.error instanceof IllegalArgumentException, "request(%d) gives %s".formatted(n, r.error));
+        r.subscription.request(5);
+        assertEquals(1, r.items.size(), "nothing after the error");
+        assertFalse(r.complete);
+        assertEquals(List.of(), r.violations);
+      }
+    }
+  }
+
+  @Test
+  void testPublishAllOrdering() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of(), dir, jar)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      // One at a time from onNext, on the background threads
+      Recorder<ResourcePublisher.Part> r = new Recorder<>(1);
+      ResourcePublisher pub = store.publishAll("p/*");
+      List<byte[]> copies = Collections.synchronizedList(new ArrayList<>());
+      pub.subscribe(new Flow.Subscriber<>() {
+        @Override
+        public void onSubscribe(Flow.Subscription s) {
+          r.onSubscribe(s);
+        }
+
+        @Override
+        public void onNext(ResourcePublisher.Part p) {
+          byte[] a = new byte[p.data().remaining()];
+          p.data().duplicate().get(a);
+          copies.add(a);
+          r.onNext(p);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          r.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+          r.onComplete();
+        }
+      });
+      ClasspathFixture.await("completion", r::terminated);
+      assertNull(r.error);
+      assertEquals(List.of(), r.violations);
+
+      // Classpath order, then path order in a directory and entry order in a jar. Each resource's parts are
+      // contiguous, and only its last is marked last
+      List<String> order = new ArrayList<>();
+      Map<String, ByteArrayOutputStream> content = new LinkedHashMap<>();
+      for (int i = 0; i < r.items.size(); ++i) {
+        ResourcePublisher.Part p = r.items.get(i);
+        String path = p.entry().getPath();
+        if (order.isEmpty() || !order.get(order.size() - 1).equals(path)) {
+          assertFalse(order.contains(path), "%s is published in one run".formatted(path));
+          order.add(path);
+        }
+        boolean lastOfRun = i + 1 == r.items.size() || !r.items.get(i + 1).entry().getPath().equals(path);
+        assertEquals(lastOfRun, p.last(), "part %d of %s".formatted(i, path));
+        content.computeIfAbsent(path, k -> new ByteArrayOutputStream()).writeBytes(copies.get(i));
+      }
+      assertEquals(List.of("p/a.txt", "p/b.txt", "p/z.txt", "p/c.txt", "p/empty.txt", "p/big.bin"), order);
+      assertEquals("ay", content.get("p/a.txt").toString(StandardCharsets.UTF_8));
+      assertEquals("see", content.get("p/c.txt").toString(StandardCharsets.UTF_8));
+      assertEquals(0, content.get("p/empty.txt").size());
+      assertArrayEquals(big, content.get("p/big.bin").toByteArray());
+    }
+  }
+
+}
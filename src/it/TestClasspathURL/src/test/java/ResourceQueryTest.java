@@ -0,0 +1,83 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.infrastructurebuilder.util.core.fs.ClasspathEntry;
+import org.infrastructurebuilder.util.core.fs.ClasspathFileStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ResourceQueryTest {
+
+  @TempDir
+  Path root;
+
+  private Path dir;
+  private Path jar;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    dir = ClasspathFixture.dir(root.resolve("dir"), "a/keep.txt", "keep", "a/gone.json", "{}");
+    jar = ClasspathFixture.jar(root.resolve("lib.jar"), "a/x.txt", "from jar", "a/y.json", "{\"from\":\"jar\"}",
+        "b/z.txt", "elsewhere");
+  }
+
+  private static List<String> elementsOf(List<ClasspathEntry> l) {
+    return l.stream().map(e -> e.getPath() + "@" + e.getElementFile().getName()).toList();
+  }
+
+  @Test
+  void testOverlayEntriesAreQueried() throws Exception {
+    try (FileSystem fs = ClasspathFixture.open(Map.of("watch", "true"), dir, jar)) {
+      ClasspathFileStore store = ClasspathFixture.store(fs);
+      File dirElement = store.getElements().get(0);
+      File jarElement = store.getElements().get(1);
+      assertEquals(List.of("a/gone.json", "a/keep.txt", "a/x.txt", "a/y.json"), store.query().under("a").paths());
+
+      // Added, shadowing a jar entry, and removed
+      Files.writeString(dir.resolve("a/new.json"), "{\"new\":true}", StandardCharsets.UTF_8);
+      Files.writeString(dir.resolve("a/x.txt"), "from the directory, and longest", StandardCharsets.UTF_8);
+      Files.delete(dir.resolve("a/gone.json"));
+      ClasspathFixture.await("the changes",
+          () -> store.getEntry("a/new.json").isPresent() && store.getEntry("a/gone.json").isEmpty()
+              && store.getEntry("a/x.txt").map(e -> e.getElementFile().equals(dirElement)).orElse(false));
+
+      assertEquals(List.of("a/keep.txt", "a/new.json", "a/x.txt", "a/y.json"), store.query().under("a").paths());
+      assertEquals(5, store.query().count());
+      assertEquals(List.of("a/new.json", "a/y.json"), store.query().extension("json").paths());
+      assertEquals(List.of("a/new.json"), store.query().glob("a/n*").paths());
+      assertEquals(List.of("a/keep.txt@dir", "a/new.json@dir", "a/x.txt@dir"),
+          elementsOf(store.query().element(dirElement).entries()));
+      assertEquals(List.of("a/y.json@lib.jar", "b/z.txt@lib.jar"),
+          elementsOf(store.query().element(jarElement).entries()));
+      assertEquals(List.of("a/x.txt@dir"), elementsOf(store.query().under("a").minLength(20).entries()));
+      assertEquals(List.of("a/x.txt@dir", "a/y.json@lib.jar"), elementsOf(store.query().largest(2)));
+      assertEquals(2, store.query().under("a").ids().cardinality(), "ids are of the compact form only");
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.infrastructurebuilder.util.core.fs.SeekPointIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SeekPointIndexTest {
+
+  private static final int INTERVAL = 2 * SeekPointIndex.WINDOW_SIZE;
+
+  private byte[] content;
+  private SeekPointIndex index;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    // Compressible but not repetitive, and not a whole number of intervals
+    Random r = new Random(42);
+    content = new byte[5 * INTERVAL + 12345];
+    for (int i = 0; i < content.length; ++i)
+      content[i] = (byte) ('a' + r.nextInt(8));
+    SeekPointIndex.Builder b = SeekPointIndex.builder(content.length, INTERVAL);
+    // Fed in pieces that straddle the checkpoints
+    for (int at = 0; at < content.length; at += 7001)
+      b.update(ByteBuffer.wrap(content, at, Math.min(7001, content.length - at)));
+    index = b.finish().orElseThrow();
+  }
+
+  private byte[] read(long pos, int n) throws Exception {
+    ByteBuffer dst = ByteBuffer.allocate(n);
+    while (dst.hasRemaining()) {
+      int k = index.read(dst, pos + dst.position());
+      if (k < 0)
+        break;
+    }
+    return Arrays.copyOf(dst.array(), dst.position());
+  }
+
+  private byte[] expected(long pos, int n) {
+    return Arrays.copyOfRange(content, (int) pos, (int) Math.min(content.length, pos + n));
+  }
+
+  @Test
+  void testCheckpoints() {
+    assertEquals(content.length, index.getLength());
+    assertEquals(6, index.getCheckpointCount());
+    for (int k = 0; k < 6; ++k) {
+      long at = (long) k * INTERVAL;
+      assertEquals(at, index.checkpointBefore(at));
+      assertEquals(at, index.checkpointBefore(at + INTERVAL / 2));
+      if (k > 0)
+        assertEquals(at - INTERVAL, index.checkpointBefore(at - 1));
+    }
+    assertEquals(5L * INTERVAL, index.checkpointBefore(content.length - 1));
+  }
+
+  @Test
+  void testReadsAtAndBetweenCheckpoints() throws Exception {
+    for (int k = 0; k < 6; ++k) {
+      long at = (long) k * INTERVAL;
+      for (long pos : new long[] { at, at + 1, at + INTERVAL / 2, at - 1, at - 100 }) {
+        if (pos < 0 || pos >= content.length)
+          continue;
+        for (int n : new int[] { 1, 100, INTERVAL, 3 * INTERVAL + 17 })
+          assertArrayEquals(expected(pos, n), read(pos, n), "%d bytes at %d".formatted(n, pos));
+      }
+    }
+  }
+
+  @Test
+  void testWholeAndPastTheEnd() throws Exception {
+    assertArrayEquals(content, read(0, content.length + 10));
+    assertArrayEquals(expected(content.length - 3, 3), read(content.length - 3, 10));
+    assertEquals(-1, index.read(ByteBuffer.allocate(1), content.length));
+  }
+
+  @Test
+  void testStreamsStartAtTheCheckpoint() throws Exception {
+    for (long pos : new long[] { 0, INTERVAL - 1, INTERVAL, 3L * INTERVAL + 5 }) {
+      long from = index.checkpointBefore(pos);
+      try (InputStream in = index.openStream(pos)) {
+        assertArrayEquals(expected(from, content.length), in.readAllBytes(), "from " + pos);
+      }
+    }
+  }
+
+  @Test
+  void testShortContentIsNotIndexed() {
+    SeekPointIndex.Builder b = SeekPointIndex.builder(content.length, INTERVAL);
+    b.update(ByteBuffer.wrap(content, 0, content.length - 1));
+    assertFalse(b.finish().isPresent());
+  }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A read-only channel over a shared {@link ByteBuffer}, typically content held by the {@link ClasspathContentCache} or
+ * a mapped file.
+ *
+ * Each channel works on its own duplicate of the buffer, so any number of channels (and threads issuing positional
+ * reads) can share the same content without copying it.
+ */
+public class ByteBufferByteChannel implements ClasspathByteChannel {
+
+  private final ByteBuffer content;
+  private final AtomicBoolean closed = new AtomicBoolean();
+  private int position = 0;
+
+  public ByteBufferByteChannel(ByteBuffer content) {
+    this.content = content.duplicate().clear();
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (!isOpen())
+      throw new ClosedChannelException();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return !closed.get();
+  }
+
+  @Override
+  public void close() {
+    closed.set(true);
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    int read = read(dst, position);
+    if (read > 0)
+      position += read;
+    return read;
+  }
+
+  @Override
+  public int read(ByteBuffer dst, long pos) throws IOException {
+    ensureOpen();
+    if (pos < 0L)
+      throw new IllegalArgumentException("Illegal position %d".formatted(pos));
+    int limit = content.limit();
+    if (pos >= limit)
+      return -1;
+    int wanted = (int) Math.min(dst.remaining(), limit - pos);
+    dst.put(dst.position(), content, (int) pos, wanted);
+    dst.position(dst.position() + wanted);
+    return wanted;
+  }
+
+  @Override
+  public long transferTo(WritableByteChannel target) throws IOException {
+    ensureOpen();
+    if (position >= content.limit())
+      return 0L;
+    ByteBuffer src = content.duplicate().position(position);
+    long total = 0L;
+    while (src.hasRemaining()) {
+      int written = target.write(src);
+      if (written <= 0)
+        break;
+      total += written;
+    }
+    position += (int) total;
+    return total;
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    throw new UnsupportedOperationException("No modification allowed");
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size) throws IOException {
+    throw new UnsupportedOperationException("No modification allowed");
+  }
+
+  @Override
+  public long position() throws IOException {
+    return position;
+  }
+
+  @Override
+  public SeekableByteChannel position(long newPosition) throws IOException {
+    ensureOpen();
+    if (newPosition < 0L || newPosition > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Illegal new position %d".formatted(newPosition));
+    position = (int) newPosition;
+    return this;
+  }
+
+  @Override
+  public long size() throws IOException {
+    return content.limit();
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of fixed-size direct buffers used to shovel inflated content between channels without allocating a
+ * fresh buffer for every transfer.
+ */
+public final class ByteBufferPool {
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  public static final int DEFAULT_MAX_POOLED = 32;
+
+  private static final ByteBufferPool SHARED = new ByteBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+  private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+  private final int bufferSize;
+  private final int maxPooled;
+
+  public static ByteBufferPool shared() {
+    return SHARED;
+  }
+
+  public ByteBufferPool(int bufferSize, int maxPooled) {
+    if (bufferSize < 1 || maxPooled < 0)
+      throw new IllegalArgumentException("Bad pool sizing %d/%d".formatted(bufferSize, maxPooled));
+    this.bufferSize = bufferSize;
+    this.maxPooled = maxPooled;
+  }
+
+  public int getBufferSize() {
+    return this.bufferSize;
+  }
+
+  /**
+   * @return a cleared buffer of {@link #getBufferSize()} capacity. Hand it back with {@link #release(ByteBuffer)}
+   */
+  public ByteBuffer acquire() {
+    ByteBuffer b = free.pollFirst();
+    if (b == null)
+      return ByteBuffer.allocateDirect(bufferSize);
+    pooled.decrementAndGet();
+    return b.clear();
+  }
+
+  /**
+   * Return a buffer obtained from {@link #acquire()}. Foreign buffers and buffers beyond the pool limit are dropped.
+   *
+   * @param b buffer to return (may be null)
+   */
+  public void release(ByteBuffer b) {
+    if (b == null || !b.isDirect() || b.capacity() != bufferSize)
+      return;
+    if (pooled.incrementAndGet() <= maxPooled)
+      free.offerFirst(b.clear());
+    else
+      pooled.decrementAndGet();
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * The read-only channel type handed out for classpath resources.
+ *
+ * On top of {@link SeekableByteChannel} it supports scattering reads and a {@link #transferTo(WritableByteChannel)}
+ * that lets each implementation pick the cheapest way to push its content into another channel (sendfile for file
+ * backed content, a single write for in-memory content, pooled buffers for inflated content).
+ *
+ * Positional reads ({@link #read(ByteBuffer, long)}) never move the channel and may be issued from many threads at once.
+ */
+public interface ClasspathByteChannel extends SeekableByteChannel, ScatteringByteChannel {
+
+  /**
+   * Transfer the bytes between the current position and the end of the resource into {@code target}, advancing the
+   * position by the number of bytes transferred.
+   *
+   * Fewer bytes than remain may be transferred if {@code target} is non-blocking and stops accepting bytes.
+   *
+   * @param target channel to write to
+   * @return number of bytes transferred
+   * @throws IOException if an I/O error occurs
+   */
+  long transferTo(WritableByteChannel target) throws IOException;
+
+  /**
+   * Read into {@code dst} starting at the absolute {@code position} without touching this channel's own position.
+   *
+   * Implementations are safe for concurrent use, so several threads may read slices of one resource through a single
+   * channel.
+   *
+   * @param dst      buffer to fill
+   * @param position absolute position within the resource
+   * @return number of bytes read, or -1 if {@code position} is at or past the end of the resource
+   * @throws IOException if an I/O error occurs
+   */
+  int read(ByteBuffer dst, long position) throws IOException;
+
+  @Override
+  default long read(ByteBuffer[] dsts) throws IOException {
+    return read(dsts, 0, dsts.length);
+  }
+
+  @Override
+  default long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    Objects.checkFromIndexSize(offset, length, dsts.length);
+    long total = 0L;
+    for (int i = offset; i < offset + length; ++i) {
+      ByteBuffer dst = dsts[i];
+      while (dst.hasRemaining()) {
+        int read = read(dst);
+        if (read == -1)
+          return total == 0L ? -1L : total;
+        if (read == 0)
+          return total;
+        total += read;
+      }
+    }
+    return total;
+  }
+
+}
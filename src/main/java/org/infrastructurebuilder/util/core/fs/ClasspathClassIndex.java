@@ -0,0 +1,367 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+
+import io.github.classgraph.ClassInfo;
+import io.github.classgraph.ClassInfoList;
+import io.github.classgraph.ScanResult;
+
+/**
+ * Class metadata queries (classes by annotation, implementors of an interface, subclasses of a class) answered from a
+ * few int arrays rather than ClassGraph's object graph.
+ *
+ * Built from a scan with {@code enableClassInfo} (and {@code enableAnnotationInfo} for annotations), after which the
+ * scan need not be kept. Class names are held once, sorted, and each class refers to its superclass, interfaces and
+ * annotations by position. Classes the scan did not cover (the JDK, unless {@code enableExternalClasses}) are named as
+ * supertypes and annotations but are never returned.
+ *
+ * With {@code indexDirectory} configured the index is persisted there with the configuration and a fingerprint of
+ * every element, and later filesystems with the same configuration load it without scanning while every fingerprint
+ * still matches.
+ */
+public class ClasspathClassIndex {
+  private static final int MAGIC = 0x43504349; // "CPCI"
+  private static final int VERSION = 2;
+  private static final String INHERITED = "java.lang.annotation.Inherited";
+  private static final byte SCANNED = 1;
+  private static final byte INTERFACE = 2;
+  private static final byte ANNOTATION = 4;
+
+  // Forward edges, by class id. xStart[i] to xStart[i + 1] delimit the ids in x for class i
+  private final String[] names;
+  private final byte[] flags;
+  private final int[] superclass;
+  private final int[] interfaceStart;
+  private final int[] interfaces;
+  private final int[] annotationStart;
+  private final int[] annotations;
+  // Reverse edges, derived on construction
+  private final int[] subclassStart;
+  private final int[] subclasses;
+  private final int[] implementorStart;
+  private final int[] implementors;
+  private final int[] annotatedStart;
+  private final int[] annotated;
+
+  private ClasspathClassIndex(String[] names, byte[] flags, int[] superclass, int[] interfaceStart, int[] interfaces,
+      int[] annotationStart, int[] annotations) {
+    this.names = names;
+    this.flags = flags;
+    this.superclass = superclass;
+    this.interfaceStart = interfaceStart;
+    this.interfaces = interfaces;
+    this.annotationStart = annotationStart;
+    this.annotations = annotations;
+    int n = names.length;
+    int[] superStart = new int[n + 1];
+    for (int i = 0; i < n; ++i)
+      superStart[i + 1] = superStart[i] + (superclass[i] < 0 ? 0 : 1);
+    int[] supers = new int[superStart[n]];
+    for (int i = 0; i < n; ++i)
+      if (superclass[i] >= 0)
+        supers[superStart[i]] = superclass[i];
+    int[][] r = reverse(n, superStart, supers);
+    this.subclassStart = r[0];
+    this.subclasses = r[1];
+    r = reverse(n, interfaceStart, interfaces);
+    this.implementorStart = r[0];
+    this.implementors = r[1];
+    r = reverse(n, annotationStart, annotations);
+    this.annotatedStart = r[0];
+    this.annotated = r[1];
+  }
+
+  /**
+   * @param start   {@code start[i]} to {@code start[i + 1]} delimit the targets of class i in {@code targets}
+   * @param targets edge targets
+   * @return the reverse edges, as {start, sources}
+   */
+  private static int[][] reverse(int n, int[] start, int[] targets) {
+    int[] count = new int[n + 1];
+    for (int t : targets)
+      ++count[t + 1];
+    for (int i = 0; i < n; ++i)
+      count[i + 1] += count[i];
+    int[] sources = new int[count[n]];
+    int[] fill = Arrays.copyOf(count, n);
+    for (int i = 0; i < n; ++i)
+      for (int j = start[i]; j < start[i + 1]; ++j)
+        sources[fill[targets[j]]++] = i;
+    return new int[][] { count, sources };
+  }
+
+  /**
+   * @param scan        a scan with class info enabled
+   * @param annotations whether annotation info was enabled too
+   * @return the metadata of every class of the scan
+   */
+  public static ClasspathClassIndex of(ScanResult scan, boolean annotations) {
+    ClassInfoList all = scan.getAllClasses();
+    TreeSet<String> sorted = new TreeSet<>();
+    for (ClassInfo ci : all) {
+      sorted.add(ci.getName());
+      if (ci.getSuperclass() != null)
+        sorted.add(ci.getSuperclass().getName());
+      for (ClassInfo i : ci.getInterfaces())
+        sorted.add(i.getName());
+      if (annotations)
+        for (ClassInfo a : ci.getAnnotations())
+          sorted.add(a.getName());
+    }
+    String[] names = sorted.toArray(String[]::new);
+    int n = names.length;
+    byte[] flags = new byte[n];
+    int[] superclass = new int[n];
+    Arrays.fill(superclass, -1);
+    List<int[]> ifs = new ArrayList<>(Collections.nCopies(n, new int[0]));
+    List<int[]> anns = new ArrayList<>(Collections.nCopies(n, new int[0]));
+    for (ClassInfo ci : all) {
+      int id = Arrays.binarySearch(names, ci.getName());
+      flags[id] = (byte) (SCANNED | (ci.isInterface() ? INTERFACE : 0) | (ci.isAnnotation() ? ANNOTATION : 0));
+      if (ci.getSuperclass() != null)
+        superclass[id] = Arrays.binarySearch(names, ci.getSuperclass().getName());
+      ifs.set(id, ids(names, ci.getInterfaces()));
+      if (annotations)
+        anns.set(id, ids(names, ci.getAnnotations()));
+    }
+    int[][] i = flatten(ifs);
+    int[][] a = flatten(anns);
+    return new ClasspathClassIndex(names, flags, superclass, i[0], i[1], a[0], a[1]);
+  }
+
+  private static int[] ids(String[] names, ClassInfoList l) {
+    return l.stream().mapToInt(c -> Arrays.binarySearch(names, c.getName())).distinct().sorted().toArray();
+  }
+
+  private static int[][] flatten(List<int[]> l) {
+    int[] start = new int[l.size() + 1];
+    for (int i = 0; i < l.size(); ++i)
+      start[i + 1] = start[i] + l.get(i).length;
+    int[] all = new int[start[l.size()]];
+    for (int i = 0; i < l.size(); ++i)
+      System.arraycopy(l.get(i), 0, all, start[i], l.get(i).length);
+    return new int[][] { start, all };
+  }
+
+  /**
+   * @return the number of classes scanned
+   */
+  public int size() {
+    int c = 0;
+    for (byte f : flags)
+      if ((f & SCANNED) != 0)
+        ++c;
+    return c;
+  }
+
+  /**
+   * @return every class scanned, by name
+   */
+  public List<String> getAllClasses() {
+    BitSet b = new BitSet(names.length);
+    b.set(0, names.length);
+    return names(b, 0);
+  }
+
+  /**
+   * Classes annotated with {@code annotation}, directly or through annotations that are themselves (meta-)annotated
+   * with it, and their subclasses if it is {@code @Inherited}
+   *
+   * @param annotation annotation class name
+   * @return the classes, other than annotations, by name
+   */
+  public List<String> getClassesWithAnnotation(String annotation) {
+    int a = id(annotation);
+    if (a < 0)
+      return List.of();
+    BitSet found = new BitSet(names.length);
+    // Annotations carrying it, however indirectly, count as it
+    BitSet meta = new BitSet(names.length);
+    meta.set(a);
+    List<Integer> todo = new ArrayList<>(List.of(a));
+    while (!todo.isEmpty()) {
+      int m = todo.remove(todo.size() - 1);
+      for (int j = annotatedStart[m]; j < annotatedStart[m + 1]; ++j) {
+        int c = annotated[j];
+        if ((flags[c] & ANNOTATION) != 0) {
+          if (!meta.get(c)) {
+            meta.set(c);
+            todo.add(c);
+          }
+        } else
+          found.set(c);
+      }
+    }
+    if (hasAnnotation(a, INHERITED))
+      for (int c = found.nextSetBit(0); c >= 0; c = found.nextSetBit(c + 1))
+        addSubclasses(c, found);
+    return names(found, ANNOTATION);
+  }
+
+  /**
+   * Classes implementing {@code iface}, directly, through a superinterface or through a superclass
+   *
+   * @param iface interface name
+   * @return the classes, other than interfaces, by name
+   */
+  public List<String> getClassesImplementing(String iface) {
+    int i = id(iface);
+    if (i < 0)
+      return List.of();
+    BitSet seen = new BitSet(names.length);
+    BitSet found = new BitSet(names.length);
+    List<Integer> todo = new ArrayList<>(List.of(i));
+    seen.set(i);
+    while (!todo.isEmpty()) {
+      int t = todo.remove(todo.size() - 1);
+      for (int j = implementorStart[t]; j < implementorStart[t + 1]; ++j) {
+        int c = implementors[j];
+        if (seen.get(c))
+          continue;
+        seen.set(c);
+        if ((flags[c] & INTERFACE) != 0)
+          todo.add(c);
+        else {
+          found.set(c);
+          addSubclasses(c, found);
+        }
+      }
+    }
+    return names(found, INTERFACE);
+  }
+
+  /**
+   * @param superclass class name
+   * @return all classes extending it, however indirectly, by name
+   */
+  public List<String> getSubclasses(String superclass) {
+    int s = id(superclass);
+    if (s < 0)
+      return List.of();
+    BitSet found = new BitSet(names.length);
+    addSubclasses(s, found);
+    return names(found, 0);
+  }
+
+  /**
+   * @param name class name
+   * @return its direct superclass, if known
+   */
+  public Optional<String> getSuperclass(String name) {
+    int c = id(name);
+    return c < 0 || superclass[c] < 0 ? Optional.empty() : Optional.of(names[superclass[c]]);
+  }
+
+  private void addSubclasses(int c, BitSet found) {
+    for (int j = subclassStart[c]; j < subclassStart[c + 1]; ++j) {
+      int s = subclasses[j];
+      if (!found.get(s)) {
+        found.set(s);
+        addSubclasses(s, found);
+      }
+    }
+  }
+
+  private boolean hasAnnotation(int c, String annotation) {
+    for (int j = annotationStart[c]; j < annotationStart[c + 1]; ++j)
+      if (names[annotations[j]].equals(annotation))
+        return true;
+    return false;
+  }
+
+  private int id(String name) {
+    int i = Arrays.binarySearch(names, name);
+    return i < 0 ? -1 : i;
+  }
+
+  /**
+   * @return the names of the scanned classes in {@code ids} without any of the {@code excluded} flags, sorted
+   */
+  private List<String> names(BitSet ids, int excluded) {
+    List<String> l = new ArrayList<>();
+    for (int c = ids.nextSetBit(0); c >= 0; c = ids.nextSetBit(c + 1))
+      if ((flags[c] & SCANNED) != 0 && (flags[c] & excluded) == 0)
+        l.add(names[c]);
+    return Collections.unmodifiableList(l);
+  }
+
+  /**
+   * Persist the index, if {@code indexDirectory} is configured
+   *
+   * @param config   the configuration of the scan it came from
+   * @param elements the elements scanned
+   * @throws IOException on failure to write
+   */
+  void save(ClasspathConfig config, List<File> elements) throws IOException {
+    Optional<IndexFile> file = IndexFile.of(config, "classes", MAGIC, VERSION);
+    if (file.isEmpty())
+      return;
+    file.get().write(elements, "", out -> {
+      out.writeInt(names.length);
+      for (String s : names)
+        out.writeUTF(s);
+      out.write(flags);
+      write(out, superclass);
+      write(out, interfaceStart);
+      write(out, interfaces);
+      write(out, annotationStart);
+      write(out, annotations);
+    });
+  }
+
+  /**
+   * @param config the configuration a scan would use
+   * @return the persisted index for it, or null if there is none or any element has changed since
+   */
+  static ClasspathClassIndex load(ClasspathConfig config) {
+    return IndexFile.of(config, "classes", MAGIC, VERSION).map(f -> f.read("", in -> {
+      String[] names = new String[in.readInt()];
+      for (int i = 0; i < names.length; ++i)
+        names[i] = in.readUTF();
+      byte[] flags = new byte[names.length];
+      in.readFully(flags);
+      return new ClasspathClassIndex(names, flags, read(in), read(in), read(in), read(in), read(in));
+    })).orElse(null);
+  }
+
+  private static void write(DataOutputStream out, int[] a) throws IOException {
+    out.writeInt(a.length);
+    for (int v : a)
+      out.writeInt(v);
+  }
+
+  private static int[] read(DataInputStream in) throws IOException {
+    int[] a = new int[in.readInt()];
+    for (int i = 0; i < a.length; ++i)
+      a[i] = in.readInt();
+    return a;
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Loads classes from a classpath filesystem.
+ *
+ * Classes are found with one index lookup rather than by asking each element in turn, as {@code URLClassLoader} does,
+ * and defined from a {@link ByteBuffer}: cached content where the store has it, else the bytes of the one entry, read
+ * from a jar borrowed from the store's {@link JarHandlePool} and inflated with a pooled inflater. Nothing is mapped or
+ * held open between loads. Loading is parallel capable. Once closed, the loader finds no more classes or resources.
+ *
+ * Delegation is parent first. Packages are defined without manifest attributes, and only the entry that wins a path
+ * is visible, so {@link #getResources(String)} yields at most one URL from this loader.
+ */
+public class ClasspathClassLoader extends ClassLoader implements Closeable {
+  static {
+    registerAsParallelCapable();
+  }
+
+  private final ClasspathFileStore store;
+  private final Map<File, ProtectionDomain> domains = new ConcurrentHashMap<>();
+  private volatile boolean closed = false;
+
+  public ClasspathClassLoader(ClasspathFileSystem fs, ClassLoader parent) {
+    this(null, fs, parent);
+  }
+
+  public ClasspathClassLoader(String name, ClasspathFileSystem fs, ClassLoader parent) {
+    super(name, parent);
+    this.store = fs.getFileStore();
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    if (closed)
+      throw new ClassNotFoundException(name);
+    String path = name.replace('.', '/').concat(".class");
+    ClasspathEntry e = store.getEntry(path).orElseThrow(() -> new ClassNotFoundException(name));
+    ByteBuffer b;
+    try {
+      b = content(e);
+    } catch (IOException x) {
+      throw new ClassNotFoundException(name, x);
+    }
+    int dot = name.lastIndexOf('.');
+    if (dot > 0) {
+      String pkg = name.substring(0, dot);
+      if (getDefinedPackage(pkg) == null) {
+        try {
+          definePackage(pkg, null, null, null, null, null, null, null);
+        } catch (IllegalArgumentException x) {
+          // Defined meanwhile by another thread
+        }
+      }
+    }
+    return defineClass(name, b, domain(e.getElementFile()));
+  }
+
+  @Override
+  protected URL findResource(String name) {
+    if (closed)
+      return null;
+    return store.getEntry(name).map(e -> {
+      try {
+        return e.getURI().toURL();
+      } catch (MalformedURLException | IllegalArgumentException x) {
+        return null; // No handler for it here
+      }
+    }).orElse(null);
+  }
+
+  @Override
+  protected Enumeration<URL> findResources(String name) {
+    URL u = findResource(name);
+    return u == null ? Collections.emptyEnumeration() : Collections.enumeration(Collections.singletonList(u));
+  }
+
+  private ByteBuffer content(ClasspathEntry e) throws IOException {
+    Optional<ByteBuffer> cached = store.getContentCache().get(e.getURI().toString());
+    if (cached.isPresent())
+      return cached.get();
+    ZipCentralDirectory.Entry ze = store.getZipEntry(e).orElse(null);
+    if (ze == null || (!ze.isStored() && ze.method() != ZipCentralDirectory.DEFLATED)) {
+      try (InputStream in = store.newInputStream(e)) {
+        return ByteBuffer.wrap(in.readAllBytes());
+      }
+    }
+    // Only this entry's bytes, and the jar goes back to the pool at once
+    ByteBuffer stored = ByteBuffer.allocate(Math.toIntExact(ze.compressedSize()));
+    try (ClasspathByteChannel ch = store.getHandles().region(e.getElementFile(), ze)) {
+      while (stored.hasRemaining())
+        if (ch.read(stored) < 0)
+          throw new ZipException("Truncated entry %s".formatted(ze.name()));
+    }
+    stored.flip();
+    if (ze.isStored())
+      return stored;
+    ByteBuffer out = ByteBuffer.allocate(Math.toIntExact(ze.size()));
+    Inflater inf = store.getHandles().inflater();
+    try {
+      inf.setInput(stored);
+      while (out.hasRemaining() && !inf.finished()) {
+        if (inf.inflate(out) == 0 && (inf.needsInput() || inf.needsDictionary()))
+          throw new ZipException("Truncated entry %s".formatted(ze.name()));
+      }
+    } catch (DataFormatException x) {
+      throw new ZipException("Corrupt entry %s: %s".formatted(ze.name(), x.getMessage()));
+    } finally {
+      store.getHandles().release(inf);
+    }
+    return out.flip();
+  }
+
+  private ProtectionDomain domain(File element) {
+    if (element == null)
+      return null;
+    return domains.computeIfAbsent(element, f -> {
+      try {
+        return new ProtectionDomain(new CodeSource(f.toURI().toURL(), (CodeSigner[]) null), null, this, null);
+      } catch (MalformedURLException e) {
+        throw new IllegalArgumentException("No URL for %s".formatted(f), e);
+      }
+    });
+  }
+
+  /**
+   * Stop finding classes and resources. Classes already defined stay usable
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    this.domains.clear();
+  }
+
+}
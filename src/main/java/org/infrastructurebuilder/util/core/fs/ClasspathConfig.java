@@ -17,10 +17,13 @@
  */
 package org.infrastructurebuilder.util.core.fs;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.github.classgraph.ClassGraph;
@@ -47,12 +50,40 @@ public class ClasspathConfig {
       } catch (NumberFormatException nfe) {
         throw new RuntimeException("Error parsing int from {}".formatted(s));
       }
+    } else if (obj instanceof Number n) {
+      ret = n.intValue();
     }
     return Optional.ofNullable(ret);
 
   }
 
-  private boolean bool(String key) {
+  Object get(String key) {
+    return c.get(key);
+  }
+
+  /**
+   * @return the plain settings (strings, numbers, booleans, string arrays) as text, in key order, so that persisted
+   *         results can tell whether they were computed with the same configuration
+   */
+  String settingsKey() {
+    StringBuilder sb = new StringBuilder();
+    new TreeMap<>(c).forEach((k, v) -> {
+      if (v instanceof String[] a)
+        v = Arrays.toString(a);
+      if (v instanceof CharSequence || v instanceof Number || v instanceof Boolean)
+        sb.append(k).append('=').append(v).append('\n');
+    });
+    return sb.toString();
+  }
+
+  /**
+   * @return true if {@code scanEngine} selects the {@link LeanScanner} rather than ClassGraph
+   */
+  public boolean isLeanScan() {
+    return getString("scanEngine").map("lean"::equalsIgnoreCase).orElse(false);
+  }
+
+  boolean bool(String key) {
     Boolean ret = null;
     var obj = c.getOrDefault(key, null);
     if (obj instanceof String s) {
@@ -223,12 +254,55 @@ public class ClasspathConfig {
     if (graph.get() == null)
       validate();
 
-    Integer threads = getInteger("threads", null).orElse(null);
-    return threads != null ? graph.get().scan(threads) : graph.get().scan();
+    ScanScheduler scheduler = scheduler();
+    // Element planning costs a classpath resolution pass, so only do it when the pool is not pinned by "threads"
+    int parallelism = scheduler.parallelism(() -> ScanScheduler.plan(graph.get().getClasspathFiles()));
+    try (ScanScheduler.Lease lease = scheduler.lease(parallelism)) {
+      return graph.get().scan(lease.executor(), parallelism);
+    }
+  }
+
+  ScanScheduler scheduler() {
+    Object es = c.get("scanExecutorService");
+    if (es != null && !(es instanceof ExecutorService))
+      throw new ClassCastException("scanExecutorService must be an ExecutorService %s".formatted(es));
+    return new ScanScheduler(getInteger("threads", null).orElse(null), getDouble("scanIoFactor").orElse(null),
+        getString("scanExecutor").orElse(null), (ExecutorService) es);
+  }
+
+  public Optional<String> getString(String key) {
+    return Optional.ofNullable(c.get(key)).map(Object::toString);
+  }
+
+  Optional<Double> getDouble(String key) {
+    Object obj = c.get(key);
+    if (obj instanceof Number n)
+      return Optional.of(n.doubleValue());
+    if (obj instanceof String s) {
+      try {
+        return Optional.of(Double.parseDouble(s));
+      } catch (NumberFormatException nfe) {
+        throw new RuntimeException("Error parsing double from %s".formatted(s));
+      }
+    }
+    return Optional.empty();
+  }
 
+  Optional<Long> getLong(String key) {
+    Object obj = c.get(key);
+    if (obj instanceof Number n)
+      return Optional.of(n.longValue());
+    if (obj instanceof String s) {
+      try {
+        return Optional.of(Long.parseLong(s));
+      } catch (NumberFormatException nfe) {
+        throw new RuntimeException("Error parsing long from %s".formatted(s));
+      }
+    }
+    return Optional.empty();
   }
 
-  private String[] strArr(String string) {
+  String[] strArr(String string) {
     return strArr(string, new String[0]);
   }
 
@@ -0,0 +1,326 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A byte-budgeted LRU of resource content shared by all channels of a {@link ClasspathFileStore}.
+ *
+ * Content is held as read-only buffers, so a resource is read (and inflated) once and then served to every channel and
+ * every positional reader from the same bytes.
+ *
+ * Content is also deduplicated: byte-identical resources (licenses, schemas, {@code module-info.class} shipped by many
+ * jars) share one buffer, and only count against the budget once. Candidates are found by CRC-32 and size, which is
+ * free for jar entries, and confirmed by SHA-256.
+ *
+ * The budget is in bytes, optionally weighted per entry (a weight of 2 charges twice the size, so such content goes
+ * sooner; 0 is never cached). Under memory pressure the effective limit can be cut with {@link #shed(double)}, evicting
+ * at once, and then raised back in steps with {@link #recover(double)}.
+ */
+public class ClasspathContentCache {
+
+  @FunctionalInterface
+  public interface ContentLoader {
+    ByteBuffer load() throws IOException;
+  }
+
+  private record BlobKey(long size, int crc) {
+  }
+
+  /**
+   * One distinct content, and how many keys share it
+   */
+  private static final class Blob {
+    private final ByteBuffer content;
+    private final BlobKey key;
+    private final byte[] sha;
+    private final long charge;
+    private int refs = 0;
+
+    Blob(ByteBuffer content, BlobKey key, byte[] sha, long charge) {
+      this.content = content;
+      this.key = key;
+      this.sha = sha;
+      this.charge = charge;
+    }
+  }
+
+  private final LinkedHashMap<String, Blob> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private final Map<BlobKey, List<Blob>> blobs = new HashMap<>();
+  private final long budget;
+  private final boolean dedupe;
+  private long limit;
+  private long used = 0L;
+  private long resident = 0L;
+  private long logical = 0L;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong shared = new AtomicLong();
+
+  public ClasspathContentCache(long budget) {
+    this(budget, true);
+  }
+
+  /**
+   * @param budget bytes of content to retain
+   * @param dedupe share one buffer between identical contents
+   */
+  public ClasspathContentCache(long budget, boolean dedupe) {
+    this.budget = Math.max(0L, budget);
+    this.limit = this.budget;
+    this.dedupe = dedupe;
+  }
+
+  public boolean isEnabled() {
+    return this.budget > 0L;
+  }
+
+  public long getBudget() {
+    return this.budget;
+  }
+
+  /**
+   * @return the current limit, which is the budget unless memory pressure has cut it
+   */
+  public synchronized long getLimit() {
+    return this.limit;
+  }
+
+  /**
+   * @return weighted bytes charged against the limit, counting shared content once
+   */
+  public synchronized long getUsed() {
+    return this.used;
+  }
+
+  /**
+   * @return bytes retained, counting shared content once
+   */
+  public synchronized long getResident() {
+    return this.resident;
+  }
+
+  /**
+   * @return bytes that would be retained without deduplication, less what is
+   */
+  public synchronized long getBytesSaved() {
+    return this.logical - this.resident;
+  }
+
+  /**
+   * Cut the limit and evict down to it now
+   *
+   * @param factor fraction of the current limit to keep
+   */
+  public synchronized void shed(double factor) {
+    this.limit = (long) (this.limit * Math.max(0.0, Math.min(1.0, factor)));
+    trim(this.limit);
+  }
+
+  /**
+   * Raise the limit back towards the budget
+   *
+   * @param step fraction of the budget to add
+   */
+  public synchronized void recover(double step) {
+    this.limit = Math.min(budget, this.limit + (long) Math.ceil(budget * step));
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return loads that turned out to be identical to content already held
+   */
+  public long getShared() {
+    return shared.get();
+  }
+
+  public synchronized Optional<ByteBuffer> get(String key) {
+    Blob b = entries.get(key);
+    if (b == null)
+      return Optional.empty();
+    hits.incrementAndGet();
+    return Optional.of(b.content.duplicate());
+  }
+
+  /**
+   * Return the cached content for {@code key}, loading it (outside the cache lock) if absent.
+   *
+   * Content larger than the whole budget is returned but not retained.
+   *
+   * @param key    cache key
+   * @param loader supplies the content on a miss
+   * @return read-only content
+   * @throws IOException if the loader fails
+   */
+  public ByteBuffer computeIfAbsent(String key, ContentLoader loader) throws IOException {
+    return computeIfAbsent(key, -1L, loader);
+  }
+
+  /**
+   * @param key    cache key
+   * @param crc    CRC-32 of the content if already known (a jar records it), else -1
+   * @param loader supplies the content on a miss
+   * @return read-only content
+   * @throws IOException if the loader fails
+   * @see #computeIfAbsent(String, ContentLoader)
+   */
+  public ByteBuffer computeIfAbsent(String key, long crc, ContentLoader loader) throws IOException {
+    return computeIfAbsent(key, crc, 1.0, loader);
+  }
+
+  /**
+   * @param key    cache key
+   * @param crc    CRC-32 of the content if already known (a jar records it), else -1
+   * @param weight multiplies the bytes charged for the content. 0 is never retained
+   * @param loader supplies the content on a miss
+   * @return read-only content
+   * @throws IOException if the loader fails
+   * @see #computeIfAbsent(String, ContentLoader)
+   */
+  public ByteBuffer computeIfAbsent(String key, long crc, double weight, ContentLoader loader) throws IOException {
+    Optional<ByteBuffer> b = get(key);
+    if (b.isPresent())
+      return b.get();
+    misses.incrementAndGet();
+    ByteBuffer loaded = loader.load().asReadOnlyBuffer();
+    long charge = (long) Math.ceil(loaded.capacity() * Math.max(0.0, weight));
+    if (weight <= 0.0 || charge > getLimit())
+      return loaded;
+    BlobKey bk = null;
+    byte[] sha = null;
+    if (dedupe) {
+      if (crc < 0) {
+        CRC32 c = new CRC32();
+        c.update(loaded.duplicate());
+        crc = c.getValue();
+      }
+      bk = new BlobKey(loaded.capacity(), (int) crc);
+      // Hashed here, so that readers never wait on the cache lock while megabytes are digested
+      sha = sha256(loaded);
+    }
+    return put(key, loaded, bk, sha, charge).duplicate();
+  }
+
+  private synchronized ByteBuffer put(String key, ByteBuffer content, BlobKey bk, byte[] sha, long charge) {
+    Blob existing = entries.get(key);
+    if (existing != null) // Somebody else won the race
+      return existing.content;
+    Blob blob = bk == null ? null : find(bk, sha);
+    if (blob == null) {
+      // Shared content keeps the weight of whoever loaded it first
+      blob = new Blob(content, bk, sha, charge);
+      used += charge;
+      resident += content.capacity();
+      if (bk != null)
+        blobs.computeIfAbsent(bk, k -> new ArrayList<>(1)).add(blob);
+    } else
+      shared.incrementAndGet();
+    ++blob.refs;
+    logical += content.capacity();
+    entries.put(key, blob);
+    trim(limit);
+    return blob.content;
+  }
+
+  private Blob find(BlobKey bk, byte[] sha) {
+    List<Blob> candidates = blobs.get(bk);
+    if (candidates == null)
+      return null;
+    for (Blob c : candidates)
+      if (Arrays.equals(sha, c.sha))
+        return c;
+    return null;
+  }
+
+  private void trim(long target) {
+    Iterator<Map.Entry<String, Blob>> i = entries.entrySet().iterator();
+    while (used > target && i.hasNext()) {
+      release(i.next().getValue());
+      i.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private void release(Blob b) {
+    logical -= b.content.capacity();
+    if (--b.refs > 0)
+      return;
+    used -= b.charge;
+    resident -= b.content.capacity();
+    if (b.key != null) {
+      List<Blob> l = blobs.get(b.key);
+      l.remove(b);
+      if (l.isEmpty())
+        blobs.remove(b.key);
+    }
+  }
+
+  /**
+   * Drop {@code key}, whose content has changed
+   */
+  public synchronized void invalidate(String key) {
+    Blob b = entries.remove(key);
+    if (b != null)
+      release(b);
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    blobs.clear();
+    used = 0L;
+    resident = 0L;
+    logical = 0L;
+  }
+
+  private static byte[] sha256(ByteBuffer content) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(content.duplicate().clear());
+      return md.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
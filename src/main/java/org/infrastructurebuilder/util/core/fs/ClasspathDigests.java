@@ -0,0 +1,315 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Content digests of classpath resources, computed on demand and cached.
+ *
+ * Cached digests are keyed by a fingerprint of where the bytes come from (the jar, or for exploded directories the file
+ * itself, by path, size and modification time) so that a changed element is never answered from the cache. A
+ * fingerprint is taken once per file, and again after the store refreshes it. With {@code indexDirectory} configured
+ * the cache is persisted there, per classpath, and reloaded by later filesystems. Digests of files that have changed
+ * since are dropped when saving.
+ *
+ * xxHash is not offered: it is not in the JDK and this module adds no dependencies for it. {@link DigestAlgorithm#CRC32C}
+ * is the cheap hash, and {@link DigestAlgorithm#CRC32} of a jar entry costs nothing as the jar records it.
+ */
+public class ClasspathDigests {
+  private static final int MAGIC = 0x43504447; // "CPDG"
+  private static final int VERSION = 3;
+  private static final String UNBACKED = "uri#";
+
+  private final ClasspathFileStore store;
+  private final ClasspathConfig config;
+  private final IndexFile file;
+  private final Map<String, byte[]> cache = new ConcurrentHashMap<>();
+  // Size and modification time of each file digested, taken once until the store refreshes it
+  private final Map<File, String> versions = new ConcurrentHashMap<>();
+  private volatile boolean loaded = false;
+  private volatile boolean dirty = false;
+
+  ClasspathDigests(ClasspathFileStore store, ClasspathConfig config) {
+    this.store = store;
+    this.config = config;
+    this.file = IndexFile.of(config, "digests", MAGIC, VERSION).orElse(null);
+  }
+
+  /**
+   * @param path resource path
+   * @param alg  algorithm
+   * @return the digest of the content of {@code path}
+   * @throws IOException if there is no such resource or it cannot be read
+   */
+  public byte[] digest(String path, DigestAlgorithm alg) throws IOException {
+    ClasspathEntry e = store.getEntry(path).orElseThrow(() -> new NoSuchFileException(path));
+    return digest(e, alg).clone();
+  }
+
+  /**
+   * @return {@link #digest(String, DigestAlgorithm)} as lower case hex
+   */
+  public String hex(String path, DigestAlgorithm alg) throws IOException {
+    return HexFormat.of().formatHex(digest(path, alg));
+  }
+
+  /**
+   * @return a strong HTTP entity tag for the content of {@code path}
+   */
+  public String getETag(String path) throws IOException {
+    return "\"" + hex(path, DigestAlgorithm.SHA_256) + "\"";
+  }
+
+  /**
+   * Digest every resource matching a glob, in parallel
+   *
+   * @param glob glob over resource paths, as for {@code getPathMatcher("glob:...")}
+   * @param alg  algorithm
+   * @return digests by path, in path order
+   * @throws IOException if a resource cannot be read
+   */
+  public Map<String, byte[]> digestAll(String glob, DigestAlgorithm alg) throws IOException {
+    ClasspathIndex idx = store.getIndex();
+    Pattern p = Pattern.compile(Globs.toUnixRegexPattern(glob));
+    List<String> paths = new ArrayList<>();
+    for (Iterator<String> i = idx.paths(); i.hasNext();) {
+      String s = i.next();
+      if (p.matcher(s).matches())
+        paths.add(s);
+    }
+    Map<String, byte[]> r = new LinkedHashMap<>();
+    if (paths.isEmpty())
+      return r;
+    ScanScheduler scheduler = config.scheduler();
+    try (ScanScheduler.Lease lease = scheduler.lease(scheduler.parallelism(paths.size()))) {
+      List<Future<byte[]>> futures = new ArrayList<>(paths.size());
+      for (String s : paths)
+        futures.add(lease.executor().submit(() -> digest(s, alg)));
+      for (int i = 0; i < paths.size(); ++i)
+        r.put(paths.get(i), futures.get(i).get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted digesting %s".formatted(glob), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioe)
+        throw ioe;
+      throw new IOException("Failed digesting %s".formatted(glob), e.getCause());
+    }
+    save();
+    return r;
+  }
+
+  /**
+   * @return number of cached digests
+   */
+  public int size() {
+    load();
+    return cache.size();
+  }
+
+  public void clear() {
+    cache.clear();
+    versions.clear();
+    dirty = file != null;
+  }
+
+  /**
+   * Take the fingerprint of {@code f} again when next needed, as it may have changed
+   *
+   * @param f a jar, a file of an exploded directory, or a directory, for every file below it
+   */
+  void refreshed(File f) {
+    versions.remove(f);
+    String prefix = f.getPath() + File.separator;
+    versions.keySet().removeIf(k -> k.getPath().startsWith(prefix));
+  }
+
+  /**
+   * Write the cache to {@code indexDirectory}, if configured and changed
+   *
+   * @throws IOException on failure to write
+   */
+  public synchronized void save() throws IOException {
+    if (file == null || !dirty)
+      return;
+    // Digests of an older version of a file can never be asked for again
+    cache.keySet().removeIf(this::isStale);
+    Map<String, byte[]> snapshot = Map.copyOf(cache);
+    // Each digest is keyed by its own fingerprint, so the file carries none of the elements
+    file.write(List.of(), "", out -> {
+      out.writeInt(snapshot.size());
+      for (Map.Entry<String, byte[]> e : snapshot.entrySet()) {
+        out.writeUTF(e.getKey());
+        out.writeShort(e.getValue().length);
+        out.write(e.getValue());
+      }
+    });
+    dirty = false;
+  }
+
+  private void load() {
+    if (loaded)
+      return;
+    synchronized (this) {
+      if (loaded)
+        return;
+      Map<String, byte[]> m = file == null ? null : file.read("", in -> {
+        Map<String, byte[]> r = new LinkedHashMap<>();
+        int n = in.readInt();
+        for (int i = 0; i < n; ++i) {
+          String k = in.readUTF();
+          byte[] v = new byte[in.readUnsignedShort()];
+          in.readFully(v);
+          r.put(k, v);
+        }
+        return r;
+      });
+      if (m != null)
+        m.forEach(cache::putIfAbsent);
+      loaded = true;
+    }
+  }
+
+  private byte[] digest(ClasspathEntry e, DigestAlgorithm alg) throws IOException {
+    load();
+    String key = fingerprint(e) + '\0' + e.getPath() + '\0' + alg.name();
+    byte[] d = cache.get(key);
+    if (d == null) {
+      d = compute(e, alg);
+      cache.put(key, d);
+      dirty = file != null;
+    }
+    return d;
+  }
+
+  private byte[] compute(ClasspathEntry e, DigestAlgorithm alg) throws IOException {
+    if (alg == DigestAlgorithm.CRC32) {
+      var ze = store.getZipEntry(e);
+      if (ze.isPresent())
+        return ByteBuffer.allocate(4).putInt((int) ze.get().crc()).array();
+    }
+    // Straight from the source, so that digesting fills neither the content cache nor the seek indexes
+    Digester d = new Digester(alg);
+    byte[] b = new byte[ByteBufferPool.DEFAULT_BUFFER_SIZE];
+    try (InputStream in = store.newInputStream(e)) {
+      for (int n; (n = in.read(b)) >= 0;)
+        d.write(ByteBuffer.wrap(b, 0, n));
+    }
+    return d.finish();
+  }
+
+  /**
+   * @return where the bytes of {@code e} come from and, after a NUL, which version of it
+   */
+  private String fingerprint(ClasspathEntry e) {
+    File el = e.getElementFile();
+    if (el == null)
+      return e.getURI() + "\0" + UNBACKED + e.getLength();
+    File f = el.isDirectory() ? new File(el, e.getPathRelativeToElement()) : el;
+    return f.getPath() + '\0' + versions.computeIfAbsent(f, ClasspathDigests::version);
+  }
+
+  private static String version(File f) {
+    return "%d#%d".formatted(f.length(), f.lastModified());
+  }
+
+  /**
+   * @param key a cache key
+   * @return true if the file it was computed from has changed since
+   */
+  private boolean isStale(String key) {
+    int a = key.indexOf('\0');
+    int b = key.indexOf('\0', a + 1);
+    if (a < 0 || b < 0)
+      return true;
+    String v = key.substring(a + 1, b);
+    if (v.startsWith(UNBACKED))
+      return false;
+    File f = new File(key.substring(0, a));
+    return !v.equals(versions.computeIfAbsent(f, ClasspathDigests::version));
+  }
+
+  /**
+   * A sink that digests whatever is written to it
+   */
+  private static final class Digester implements WritableByteChannel {
+    private final MessageDigest md;
+    private final Checksum checksum;
+    private boolean open = true;
+
+    Digester(DigestAlgorithm alg) throws IOException {
+      if (alg.getJcaName() != null) {
+        try {
+          this.md = MessageDigest.getInstance(alg.getJcaName());
+        } catch (NoSuchAlgorithmException e) {
+          throw new IOException(e);
+        }
+        this.checksum = null;
+      } else {
+        this.md = null;
+        this.checksum = alg == DigestAlgorithm.CRC32C ? new CRC32C() : new CRC32();
+      }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      int n = src.remaining();
+      if (md != null)
+        md.update(src);
+      else
+        checksum.update(src);
+      return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+
+    byte[] finish() {
+      return md != null ? md.digest() : ByteBuffer.allocate(4).putInt((int) checksum.getValue()).array();
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * One resource of the classpath filesystem, independent of the engine that found it.
+ */
+public interface ClasspathEntry {
+
+  /**
+   * @return the path of the resource within the classpath filesystem
+   */
+  String getPath();
+
+  /**
+   * @return the path of the resource within its classpath element (differs from {@link #getPath()} when the element
+   *         has a package root, such as {@code BOOT-INF/classes/})
+   */
+  String getPathRelativeToElement();
+
+  /**
+   * @return the jar or directory holding the resource, or null if it is not backed by a file (modules, remote jars)
+   */
+  File getElementFile();
+
+  /**
+   * @return uncompressed length, or -1 if unknown
+   */
+  long getLength();
+
+  URI getURI();
+
+  /**
+   * @return a fresh stream of the content
+   * @throws IOException if the resource cannot be opened
+   */
+  InputStream open() throws IOException;
+
+}
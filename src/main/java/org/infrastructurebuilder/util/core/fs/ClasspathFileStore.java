@@ -17,43 +17,183 @@
  */
 package org.infrastructurebuilder.util.core.fs;
 
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.DirectoryStream.Filter;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.attribute.FileStoreAttributeView;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
 import org.infrastructurebuilder.exceptions.IBException;
 
 import io.github.classgraph.Resource;
 import io.github.classgraph.ResourceList;
-import io.github.classgraph.ResourceList.ResourceFilter;
 import io.github.classgraph.ScanResult;
 
 public class ClasspathFileStore extends FileStore {
+  public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+  public static final int DEFAULT_CONTENT_CACHE_SIZE = 32 * 1024 * 1024;
+  public static final int DEFAULT_SEEK_INDEX_INTERVAL = 4 * 1024 * 1024;
+  public static final int DEFAULT_READ_AHEAD_DEPTH = 2;
 
   private final static FileSystem fs = FileSystems.getDefault();
   private final ClasspathConfig config;
   private ScanResult scan;
-  private int hash = Integer.MIN_VALUE;
   private ResourceList resourceList;
+  private ClasspathIndex index;
+  private ScanReport scanReport;
+  private String classpath;
+  private List<File> leanElements;
   private int maxBufferSize;
   private final ClasspathFileSystem cpfs;
+  private final Map<File, Optional<ZipCentralDirectory>> centralDirectories = new ConcurrentHashMap<>();
+  private final ClasspathContentCache contentCache;
+  private final JarHandlePool handles;
+  private final Integer seekIndexThreshold;
+  private final int seekIndexInterval;
+  private final int readAheadDepth;
+  private final SeekIndexCache seekIndexes;
+  private final double bloomFpp;
+  private final ShadowingPolicy shadowing;
+  private ClasspathDigests digests;
+  private ClasspathServices services;
+  private ClasspathClassIndex classIndex;
+  private List<ClasspathEntry> serviceFiles;
+  private final List<Map.Entry<Pattern, Double>> cacheWeights;
+  // Held here, the subscription only holds it weakly
+  private final MemoryPressure.Listener pressureListener;
+  private final MemoryPressure.Subscription pressure;
+  private Map<File, Integer> elementOrder;
+  private ClasspathWatchService watcher;
+  private final boolean negativeLookups;
+  private final boolean lazy;
+  // With lazyScan, until the full index is needed: what has been indexed so far, and where
+  private LeanScanner lazyScanner;
+  private ClasspathIndex partial;
+  private final Set<String> shallowScanned = new HashSet<>();
+  private final Set<String> deepScanned = new HashSet<>();
 
   public ClasspathFileStore(ClasspathFileSystem fs, ClasspathConfig config) {
     this.config = config;
     this.cpfs = fs;
+    this.maxBufferSize = config.getInteger("maxBufferSize", DEFAULT_MAX_BUFFER_SIZE).orElse(DEFAULT_MAX_BUFFER_SIZE);
+    this.contentCache = new ClasspathContentCache(
+        config.getInteger("contentCacheSize", DEFAULT_CONTENT_CACHE_SIZE).orElse(DEFAULT_CONTENT_CACHE_SIZE),
+        !"false".equalsIgnoreCase(config.getString("contentCacheDedupe").orElse("true")));
+    this.handles = new JarHandlePool(
+        config.getInteger("maxOpenJars", JarHandlePool.DEFAULT_MAX_OPEN).orElse(JarHandlePool.DEFAULT_MAX_OPEN),
+        config.getInteger("maxPooledInflaters", JarHandlePool.DEFAULT_MAX_INFLATERS)
+            .orElse(JarHandlePool.DEFAULT_MAX_INFLATERS));
+    // Seek indexes are opt-in. Streamed entries at least this big get one
+    this.seekIndexThreshold = config.getInteger("seekIndexThreshold", null).orElse(null);
+    this.seekIndexInterval = config.getInteger("seekIndexInterval", DEFAULT_SEEK_INDEX_INTERVAL)
+        .orElse(DEFAULT_SEEK_INDEX_INTERVAL);
+    this.seekIndexes = new SeekIndexCache(config.getLong("seekIndexBudget").orElse(SeekIndexCache.DEFAULT_BUDGET));
+    // Blocks inflated ahead of sequential reads of streamed content. 0 turns it off
+    this.readAheadDepth = config.getInteger("readAheadDepth", DEFAULT_READ_AHEAD_DEPTH)
+        .orElse(DEFAULT_READ_AHEAD_DEPTH);
+    this.bloomFpp = config.getDouble("bloomFpp").orElse(ClasspathIndex.DEFAULT_BLOOM_FPP);
+    this.cacheWeights = parseWeights(config.getString("contentCacheWeights").orElse(""));
+    Double threshold = config.getDouble("memoryPressureThreshold").orElse(null);
+    if (threshold != null) {
+      this.pressureListener = new MemoryPressure.Listener() {
+        @Override
+        public void onPressure(double usedFraction) {
+          contentCache.shed(0.5);
+          // Well past the threshold, drop what can be rebuilt as well
+          if (usedFraction >= (1.0 + threshold) / 2)
+            seekIndexes.clear();
+        }
+
+        @Override
+        public void onRelief() {
+          contentCache.recover(0.1);
+        }
+      };
+      this.pressure = MemoryPressure.get().subscribe(pressureListener, threshold);
+    } else {
+      this.pressureListener = null;
+      this.pressure = null;
+    }
+    this.shadowing = config.getString("shadowing").map(ShadowingPolicy::of).orElse(ShadowingPolicy.CLASSPATH_ORDER);
+    // Only if this store sees everything the system class loader does may it answer for it
+    this.negativeLookups = config.bool("negativeLookups");
+    // A watched index has to be complete to be kept up to date
+    this.lazy = config.bool("lazyScan") && !config.bool("watch");
+  }
+
+  /**
+   * @param spec {@code glob=weight} pairs, comma separated
+   */
+  private static List<Map.Entry<Pattern, Double>> parseWeights(String spec) {
+    List<Map.Entry<Pattern, Double>> l = new ArrayList<>();
+    for (String pair : spec.split(",")) {
+      if (pair.isBlank())
+        continue;
+      int eq = pair.lastIndexOf('=');
+      if (eq <= 0)
+        throw new IllegalArgumentException("contentCacheWeights entries are glob=weight %s".formatted(pair));
+      try {
+        l.add(Map.entry(Pattern.compile(Globs.toUnixRegexPattern(pair.substring(0, eq).trim())),
+            Double.parseDouble(pair.substring(eq + 1).trim())));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Bad weight in contentCacheWeights %s".formatted(pair), e);
+      }
+    }
+    return l;
+  }
+
+  /**
+   * @return the weight of the first glob in {@code contentCacheWeights} matching {@code path}, else 1
+   */
+  private double cacheWeight(String path) {
+    for (Map.Entry<Pattern, Double> w : cacheWeights)
+      if (w.getKey().matcher(path).matches())
+        return w.getValue();
+    return 1.0;
   }
 
   @Override
@@ -61,14 +201,508 @@ public class ClasspathFileStore extends FileStore {
     return "classpath-filestore-%05d".formatted(config.hashCode());
   }
 
-  public ScanResult getScan() {
+  /**
+   * The ClassGraph scan backing this store.
+   *
+   * Once the index is built the scan is closed and released unless some entry still depends on it (or
+   * {@code retainScanResult} is set), so calling this afterwards scans again.
+   *
+   * @return the ClassGraph scan backing this store
+   * @throws IllegalStateException if the lean scan engine is configured
+   */
+  public synchronized ScanResult getScan() {
+    if (config.isLeanScan())
+      throw new IllegalStateException("No ScanResult is available with scanEngine=lean");
     if (this.scan == null) {
       this.scan = config.scan();
-      this.hash = this.scan.getClasspath().hashCode();
+      this.classpath = this.scan.getClasspath();
     }
     return this.scan;
   }
 
+  public ClasspathContentCache getContentCache() {
+    return this.contentCache;
+  }
+
+  /**
+   * @return the open jars and inflaters that reads from jar elements borrow
+   */
+  public JarHandlePool getHandles() {
+    return this.handles;
+  }
+
+  /**
+   * The complete index, built on first use. With {@code lazyScan}, elements are read as with {@code scanEngine=lean}.
+   *
+   * @return the index of every resource
+   */
+  public synchronized ClasspathIndex getIndex() {
+    if (this.index == null) {
+      ScanScheduler.Outcome<ClasspathEntry[]> o;
+      if (isLean()) {
+        LeanScanner lean = this.lazyScanner != null ? this.lazyScanner : new LeanScanner(config);
+        this.leanElements = lean.getElements();
+        o = lean.scan(config.scheduler());
+        this.lazyScanner = null;
+        this.partial = null;
+        this.shallowScanned.clear();
+        this.deepScanned.clear();
+      } else {
+        // Group by element in classpath order (not the order resources happen to be listed in, which is not stable
+        // across runs), then detach and sort the elements in parallel, largest first
+        Map<File, List<Resource>> byElement = new LinkedHashMap<>();
+        for (File f : getScan().getClasspathFiles())
+          byElement.put(f, new ArrayList<>());
+        for (Resource r : getResourceList())
+          byElement.computeIfAbsent(r.getClasspathElementFile(), k -> new ArrayList<>()).add(r);
+        byElement.values().removeIf(List::isEmpty);
+        List<List<Resource>> groups = new ArrayList<>(byElement.values());
+        o = config.scheduler().run(ScanScheduler.plan(new ArrayList<>(byElement.keySet())),
+            e -> ClasspathIndex.sortSegment(detach(e.file(), groups.get(e.order()))));
+        o = new ScanScheduler.Outcome<>(o.results(), o.report().as(ScanReport.Phase.INDEX_BUILD));
+      }
+      this.scanReport = o.report();
+      this.serviceFiles = ClasspathServices.serviceFiles(o.results());
+      this.index = ClasspathIndex.merge(o.results(), bloomFpp, shadowing);
+      releaseScan();
+      if (config.bool("watch"))
+        startWatching();
+    }
+    return this.index;
+  }
+
+  /**
+   * Close the scan once nothing refers to it any more
+   */
+  private void releaseScan() {
+    if (this.scan != null && this.index != null && !this.index.hasRetainedEntries()
+        && !config.bool("retainScanResult")) {
+      this.resourceList = null;
+      this.scan.close();
+      this.scan = null;
+    }
+  }
+
+  /**
+   * Class metadata, from the index persisted in {@code indexDirectory} if it is still current, else from a scan with
+   * {@code enableClassInfo}
+   *
+   * @return the class metadata index
+   * @throws IllegalStateException if it has to be built and class info is not enabled, or the lean engine is used
+   */
+  public synchronized ClasspathClassIndex getClassIndex() {
+    if (this.classIndex == null) {
+      ClasspathClassIndex ci = ClasspathClassIndex.load(config);
+      if (ci == null) {
+        if (!config.bool("enableClassInfo") && !config.bool("enableAllInfo"))
+          throw new IllegalStateException("Class metadata needs enableClassInfo");
+        ScanResult s = getScan();
+        ci = ClasspathClassIndex.of(s, config.bool("enableAnnotationInfo") || config.bool("enableAllInfo"));
+        try {
+          ci.save(config, s.getClasspathFiles());
+        } catch (IOException e) {
+          // Only a cache
+        }
+        releaseScan();
+      }
+      this.classIndex = ci;
+    }
+    return this.classIndex;
+  }
+
+  private boolean isLean() {
+    return this.lazy || config.isLeanScan();
+  }
+
+  /**
+   * The resource at a path. With {@code lazyScan}, and the full index not yet built, only the directory holding it is
+   * indexed, across all elements, if it has not been already.
+   *
+   * @param path resource path
+   * @return the entry supplying {@code path}, if any
+   */
+  public Optional<ClasspathEntry> getEntry(String path) {
+    String p = ClasspathIndex.toPrefix(path);
+    p = p.substring(0, Math.max(0, p.length() - 1));
+    int slash = p.lastIndexOf('/');
+    return indexFor(slash < 0 ? "" : p.substring(0, slash), false).get(p);
+  }
+
+  /**
+   * @param dir       a directory, "" for the root
+   * @param recursive whether its subdirectories are wanted too
+   * @return an index that is complete for {@code dir}
+   */
+  private synchronized ClasspathIndex indexFor(String dir, boolean recursive) {
+    String prefix = ClasspathIndex.toPrefix(dir);
+    if (this.index != null || !this.lazy || (recursive && prefix.isEmpty()))
+      return getIndex();
+    if (recursive ? !deepScanned.contains(prefix) : !shallowScanned.contains(prefix)) {
+      for (String d : deepScanned)
+        if (prefix.startsWith(d))
+          return this.partial;
+      // Shadowing is settled per path, so a directory at a time gives the winners a full build would
+      ClasspathIndex found = ClasspathIndex.merge(lazyScanner().scan(config.scheduler(), prefix, recursive).results(),
+          bloomFpp, shadowing);
+      for (Iterator<String> i = found.paths(); i.hasNext();)
+        found.get(i.next()).ifPresent(this.partial::put);
+      (recursive ? deepScanned : shallowScanned).add(prefix);
+    }
+    return this.partial;
+  }
+
+  private synchronized LeanScanner lazyScanner() {
+    if (this.lazyScanner == null) {
+      this.lazyScanner = new LeanScanner(config);
+      this.partial = ClasspathIndex.merge(List.of(), bloomFpp, shadowing);
+    }
+    return this.lazyScanner;
+  }
+
+  /**
+   * Keep the index up to date with the directory elements from a daemon thread
+   */
+  private void startWatching() {
+    try {
+      this.watcher = new ClasspathWatchService(cpfs, this);
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot watch the classpath directories", e);
+    }
+    final ClasspathWatchService w = this.watcher;
+    Thread t = new Thread(() -> {
+      try {
+        // Nothing is registered, so this only ever applies changes to the index
+        while (true)
+          w.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        // Done
+      }
+    }, "classpath-watch");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * @return the classpath elements, in classpath order
+   */
+  public List<File> getElements() {
+    List<File> l = new ArrayList<>();
+    for (String s : getClasspath().split(File.pathSeparator))
+      if (!s.isEmpty())
+        l.add(new File(s));
+    return l;
+  }
+
+  private synchronized Map<File, Integer> getElementOrder() {
+    if (this.elementOrder == null) {
+      Map<File, Integer> m = new ConcurrentHashMap<>();
+      List<File> l = getElements();
+      for (int i = 0; i < l.size(); ++i)
+        m.putIfAbsent(l.get(i), i);
+      this.elementOrder = m;
+    }
+    return this.elementOrder;
+  }
+
+  /**
+   * Bring the index up to date with whatever is now at {@code rel} in a directory element: a file, a directory or
+   * nothing.
+   *
+   * @param element directory element
+   * @param rel     path relative to {@code element}
+   * @throws IOException if a directory cannot be walked
+   */
+  void refresh(File element, String rel) throws IOException {
+    File f = new File(element, rel);
+    if (f.isDirectory()) {
+      try (var files = Files.walk(f.toPath())) {
+        for (Path p : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator)
+          refreshFile(element, element.toPath().relativize(p).toString().replace(File.separatorChar, '/'));
+      }
+      return;
+    }
+    refreshFile(element, rel);
+    if (!f.exists()) {
+      // Possibly a directory that went. Whatever it supplied went with it
+      ClasspathIndex idx = getIndex();
+      String prefix = ClasspathIndex.toPrefix(rel);
+      Set<String> under = new LinkedHashSet<>();
+      BitSet ids = idx.under(rel);
+      for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+        under.add(idx.getPath(id));
+      for (ClasspathEntry e : idx.overlayEntries())
+        if (e.getPath().startsWith(prefix))
+          under.add(e.getPath());
+      for (String p : under)
+        refreshFile(element, p);
+    }
+  }
+
+  /**
+   * Re-check everything a directory element supplies, after watch events were lost
+   */
+  void refreshElement(File element) throws IOException {
+    if (this.digests != null)
+      this.digests.refreshed(element);
+    ClasspathIndex idx = getIndex();
+    Set<String> supplied = new LinkedHashSet<>();
+    BitSet ids = idx.ofElement(element);
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+      supplied.add(idx.getPath(id));
+    for (ClasspathEntry e : idx.overlayEntries())
+      if (element.equals(e.getElementFile()))
+        supplied.add(e.getPath());
+    for (String p : supplied)
+      refreshFile(element, p);
+    refresh(element, "");
+  }
+
+  private void refreshFile(File element, String rel) {
+    if (this.digests != null)
+      this.digests.refreshed(new File(element, rel));
+    if (rel.startsWith(ClasspathServices.PREFIX))
+      servicesChanged();
+    else if (rel.endsWith(".class"))
+      classesChanged();
+    ClasspathIndex idx = getIndex();
+    String path = rel;
+    File f = new File(element, rel);
+    Optional<ClasspathEntry> current = idx.get(path);
+    File incumbent = current.map(ClasspathEntry::getElementFile).orElse(null);
+    Map<File, Integer> order = getElementOrder();
+    if (f.isFile()) {
+      if (current.isEmpty() || element.equals(incumbent) || shadowing.prefers(element,
+          order.getOrDefault(element, Integer.MAX_VALUE), incumbent, order.getOrDefault(incumbent, Integer.MAX_VALUE)))
+        idx.put(ElementEntry.ofFile(element, path, rel, f.length()));
+    } else if (element.equals(incumbent)) {
+      // The supplier went, so the best of what it shadowed takes over
+      Optional<ClasspathEntry> next = successor(idx, path, element, order);
+      if (next.isPresent())
+        idx.put(next.get());
+      else
+        idx.remove(path);
+    }
+    current.ifPresent(this::invalidate);
+  }
+
+  /**
+   * Every other element is asked, not only those the build-time shadowing report names, since what the overlay has
+   * shadowed since is not in it. A directory costs a stat, a jar a lookup in its (cached) central directory
+   */
+  private Optional<ClasspathEntry> successor(ClasspathIndex idx, String path, File gone, Map<File, Integer> order) {
+    Set<File> candidates = new LinkedHashSet<>(getElements());
+    idx.getShadowingReport().get(path).ifPresent(s -> {
+      candidates.addAll(s.shadowed());
+      candidates.add(s.winner());
+    });
+    ClasspathEntry best = null;
+    for (File c : candidates) {
+      if (c == null || c.equals(gone))
+        continue;
+      ClasspathEntry e = null;
+      if (c.isDirectory()) {
+        File g = new File(c, path);
+        if (g.isFile())
+          e = ElementEntry.ofFile(c, path, path, g.length());
+      } else if (c.isFile())
+        e = getCentralDirectory(c).flatMap(cd -> cd.get(path)).map(ze -> ElementEntry.ofJar(c, ze)).orElse(null);
+      if (e != null && (best == null || shadowing.prefers(c, order.getOrDefault(c, Integer.MAX_VALUE),
+          best.getElementFile(), order.getOrDefault(best.getElementFile(), Integer.MAX_VALUE))))
+        best = e;
+    }
+    return Optional.ofNullable(best);
+  }
+
+  private void invalidate(ClasspathEntry e) {
+    String key = e.getURI().toString();
+    contentCache.invalidate(key);
+    seekIndexes.invalidate(key);
+  }
+
+  /**
+   * Replace ClassGraph resources with entries that can be re-opened straight from the element, so that the
+   * {@link ScanResult} need not be kept alive. Resources that cannot be (modules, compressed nested jars) are kept as
+   * they are. Those of STORED nested jars are read from the outer jar, not from ClassGraph's extracted copy.
+   */
+  private static List<ClasspathEntry> detach(File element, List<Resource> resources) {
+    List<ClasspathEntry> l = new ArrayList<>(resources.size());
+    Map<String, Optional<ZipCentralDirectory>> nested = new HashMap<>();
+    ZipCentralDirectory cd = null;
+    if (element != null && element.isFile()) {
+      try {
+        cd = ZipCentralDirectory.read(element.toPath());
+      } catch (IOException e) {
+        // Leave them to ClassGraph
+      }
+    }
+    for (Resource r : resources) {
+      ClasspathEntry d = null;
+      String rel = r.getPathRelativeToClasspathElement();
+      if (element != null && element.isDirectory())
+        d = ElementEntry.ofFile(element, r.getPath(), rel, r.getLength());
+      else if (isNested(r.getURI().toString()))
+        d = detachNested(r, rel, nested);
+      else if (cd != null) {
+        ZipCentralDirectory.Entry ze = cd.get(rel).orElse(null);
+        if (ze != null && ze.size() == r.getLength())
+          d = ElementEntry.ofJar(element, r.getPath(), ze);
+      }
+      l.add(d != null ? d : new ResourceEntry(r));
+    }
+    return l;
+  }
+
+  private static boolean isNested(String uri) {
+    return uri.indexOf("!/") != uri.lastIndexOf("!/");
+  }
+
+  /**
+   * @param r   a resource with a URI of the form {@code jar:file:/outer.jar!/inner.jar!/rel}
+   * @param rel path of {@code r} in its element
+   * @param cds central directories of the nested jars seen so far, by URI prefix
+   * @return the resource read in place from the outer jar, or null if it cannot be (deeper nesting, compressed inner
+   *         jar, package root)
+   */
+  private static ClasspathEntry detachNested(Resource r, String rel, Map<String, Optional<ZipCentralDirectory>> cds) {
+    String uri = r.getURI().toString();
+    if (!uri.startsWith("jar:"))
+      return null;
+    String[] parts = uri.substring(4).split("!/", -1);
+    if (parts.length != 3 || !parts[2].equals(rel))
+      return null;
+    File outer;
+    try {
+      outer = new File(URI.create(parts[0]));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    String inner = parts[1];
+    Optional<ZipCentralDirectory> cd = cds.computeIfAbsent(parts[0] + "!/" + inner, k -> {
+      try {
+        return Optional.of(ZipCentralDirectory.readNested(outer.toPath(), inner));
+      } catch (IOException e) {
+        return Optional.empty(); // Compressed, or not a jar; leave it to ClassGraph
+      }
+    });
+    ZipCentralDirectory.Entry ze = cd.flatMap(c -> c.get(rel)).orElse(null);
+    return ze != null && ze.size() == r.getLength() ? ElementEntry.ofNested(outer, inner, ze) : null;
+  }
+
+  /**
+   * Cheap rejection of lookups for resources that do not exist. Never builds the index.
+   *
+   * @param path resource path, with or without a leading separator
+   * @return true if {@code negativeLookups} is set, the index is built, and {@code path} is certainly not in it
+   */
+  public boolean isKnownAbsent(String path) {
+    ClasspathIndex idx;
+    synchronized (this) {
+      idx = this.index;
+    }
+    if (!negativeLookups || idx == null)
+      return false;
+    String p = path;
+    while (p.startsWith("/"))
+      p = p.substring(1);
+    return !idx.mightContain(p);
+  }
+
+  /**
+   * @return the classpath this store serves, as a path-separated string
+   */
+  public String getClasspath() {
+    if (!isLean()) {
+      synchronized (this) {
+        if (this.classpath == null)
+          getScan();
+        return this.classpath;
+      }
+    }
+    List<File> elements;
+    synchronized (this) {
+      if (this.index == null && this.lazy)
+        elements = lazyScanner().getElements();
+      else {
+        getIndex();
+        elements = this.leanElements;
+      }
+    }
+    StringJoiner j = new StringJoiner(File.pathSeparator);
+    elements.forEach(f -> j.add(f.getPath()));
+    return j.toString();
+  }
+
+  /**
+   * @return content digests of the resources of this store
+   */
+  public synchronized ClasspathDigests getDigests() {
+    if (this.digests == null)
+      this.digests = new ClasspathDigests(this, config);
+    return this.digests;
+  }
+
+  /**
+   * @return a query over every resource, by directory, glob, extension, element and length. Builds the index
+   */
+  public ResourceQuery query() {
+    return new ResourceQuery(getIndex());
+  }
+
+  /**
+   * @return the service providers every element declares
+   */
+  public synchronized ClasspathServices getServices() {
+    if (this.services == null)
+      this.services = new ClasspathServices(this, config);
+    return this.services;
+  }
+
+  /**
+   * @return the {@code META-INF/services/} files of every element, shadowed or not, in classpath order. With
+   *         {@code lazyScan}, and the full index not yet built, only that directory is scanned
+   */
+  synchronized List<ClasspathEntry> getServiceFiles() {
+    if (this.index == null && this.lazy)
+      return ClasspathServices.serviceFiles(
+          lazyScanner().scan(config.scheduler(), ClasspathServices.PREFIX, false).results());
+    getIndex();
+    if (this.serviceFiles == null)
+      // Dropped by a watched change, so only that directory is read again
+      this.serviceFiles = ClasspathServices.serviceFiles(
+          lazyScanner().scan(config.scheduler(), ClasspathServices.PREFIX, false).results());
+    return this.serviceFiles;
+  }
+
+  /**
+   * A watched service file was added, changed or removed
+   */
+  private synchronized void servicesChanged() {
+    this.serviceFiles = null;
+    if (this.services != null)
+      this.services.invalidate();
+  }
+
+  /**
+   * A watched class file was added, changed or removed
+   */
+  private synchronized void classesChanged() {
+    this.classIndex = null;
+  }
+
+  /**
+   * @return paths held by more than one classpath element, and which one supplies each. Builds the index
+   */
+  public ShadowingReport getShadowingReport() {
+    return getIndex().getShadowingReport();
+  }
+
+  /**
+   * @return timings of the per-element scan (lean) or index build (ClassGraph), or null if the index has not been built
+   */
+  public synchronized ScanReport getScanReport() {
+    return this.scanReport;
+  }
+
   public ResourceList getResourceList() {
     if (this.resourceList == null) {
       this.resourceList = getScan().getAllResources();
@@ -127,9 +761,7 @@ public class ClasspathFileStore extends FileStore {
 
   @Override
   public int hashCode() {
-    if (this.scan == null)
-      this.hash = getScan().getClasspath().hashCode();
-    return this.hash;
+    return config.hashCode();
   }
 
   @Override
@@ -141,43 +773,166 @@ public class ClasspathFileStore extends FileStore {
     if (getClass() != obj.getClass())
       return false;
     ClasspathFileStore other = (ClasspathFileStore) obj;
-    return Objects.equals(getScan().getClasspath(), other.getScan().getClasspath());
+    return Objects.equals(config, other.config);
   }
 
-  void selfDestruct() {
+  synchronized void selfDestruct() {
+    if (this.watcher != null) {
+      try {
+        this.watcher.close();
+      } catch (IOException e) {
+        // Closing anyway
+      }
+      this.watcher = null;
+    }
+    this.elementOrder = null;
+    if (this.pressure != null)
+      this.pressure.close();
+    if (this.digests != null) {
+      try {
+        this.digests.save();
+      } catch (IOException e) {
+        // Only a cache
+      }
+      this.digests = null;
+    }
+    if (this.scan != null)
+      this.scan.close();
     this.scan = null;
+    this.classpath = null;
     this.resourceList = null;
+    this.index = null;
+    this.serviceFiles = null;
+    this.services = null;
+    this.classIndex = null;
+    this.leanElements = null;
+    this.lazyScanner = null;
+    this.partial = null;
+    this.shallowScanned.clear();
+    this.deepScanned.clear();
+    this.centralDirectories.clear();
+    this.contentCache.clear();
+    this.seekIndexes.clear();
+    this.handles.clear();
   }
 
   public ResourceList getResourceForPath(String string) {
     return getScan().getResourcesWithPath(string);
   }
 
-  public SeekableByteChannel getSeekableByteChannelForPath(String path) throws IOException {
-    ResourceList r = getResourceForPath(path);
-    if (r.size() < 1)
-      throw new IOException("No resource found matching %s".formatted(path.toString()));
-    Resource res = r.get(0);
+  private Optional<ZipCentralDirectory> getCentralDirectory(File jar) {
+    return centralDirectories.computeIfAbsent(jar, f -> {
+      try {
+        return Optional.of(ZipCentralDirectory.read(f.toPath()));
+      } catch (IOException e) {
+        // Not something we can read directly. The Resource will have to stream it
+        return Optional.empty();
+      }
+    });
+  }
+
+  /**
+   * Resources in exploded directories and STORED jar entries are plain byte ranges of a file on disk
+   *
+   * @return a channel over that range, or empty if the resource has to be streamed
+   */
+  private Optional<ClasspathByteChannel> getFileRegionChannel(ClasspathEntry res) throws IOException {
+    File element = res.getElementFile();
+    if (element == null)
+      return Optional.empty();
+    String rel = res.getPathRelativeToElement();
+    if (element.isDirectory()) {
+      FileChannel ch = FileChannel.open(element.toPath().resolve(rel), READ);
+      return Optional.of(new FileRegionByteChannel(ch, 0L, ch.size()));
+    }
+    ZipCentralDirectory.Entry e = getZipEntry(res).orElse(null);
+    if (e == null || !e.isStored())
+      return Optional.empty();
+    return Optional.of(handles.region(element, e));
+  }
+
+  /**
+   * Files in exploded directories and STORED jar entries, mapped
+   *
+   * @return the content, or empty if the resource has to be streamed or is too big for one buffer
+   */
+  Optional<ByteBuffer> map(ClasspathEntry res) throws IOException {
+    File element = res.getElementFile();
+    if (element == null || res.getLength() > Integer.MAX_VALUE)
+      return Optional.empty();
+    if (element.isDirectory()) {
+      try (FileChannel ch = FileChannel.open(element.toPath().resolve(res.getPathRelativeToElement()), READ)) {
+        return Optional.of(ch.map(READ_ONLY, 0L, ch.size()));
+      }
+    }
+    ZipCentralDirectory.Entry e = getZipEntry(res).orElse(null);
+    if (e == null || !e.isStored())
+      return Optional.empty();
+    // The mapping outlives the channel
+    try (JarHandlePool.Lease l = handles.acquire(element)) {
+      return Optional.of(l.channel().map(READ_ONLY, e.dataOffset(l.channel()), e.size()));
+    }
+  }
+
+  /**
+   * @return the central directory record of a jar entry, if it can be read directly from the jar
+   */
+  Optional<ZipCentralDirectory.Entry> getZipEntry(ClasspathEntry res) {
+    File element = res.getElementFile();
+    if (element == null || !element.isFile())
+      return Optional.empty();
+    if (res instanceof ElementEntry ee)
+      return Optional.ofNullable(ee.getZipEntry());
+    return getCentralDirectory(element).flatMap(cd -> cd.get(res.getPathRelativeToElement()))
+        .filter(e -> e.size() == res.getLength());
+  }
+
+  /**
+   * The stored bytes of a jar entry, so that DEFLATED content can be passed on compressed
+   *
+   * @param path resource path
+   * @return the entry as stored, or empty if {@code path} is not a jar entry that can be read directly
+   * @throws IOException if there is no such resource, or its jar cannot be read
+   */
+  public Optional<CompressedResource> getCompressedResource(String path) throws IOException {
+    ClasspathEntry res = getEntry(path)
+        .orElseThrow(() -> new IOException("No resource found matching %s".formatted(path)));
+    Optional<ZipCentralDirectory.Entry> ze = getZipEntry(res);
+    if (ze.isEmpty())
+      return Optional.empty();
+    ZipCentralDirectory.Entry e = ze.get();
+    long offset;
+    try (JarHandlePool.Lease l = handles.acquire(res.getElementFile())) {
+      offset = e.dataOffset(l.channel());
+    }
+    return Optional.of(new CompressedResource(res.getPath(), res.getElementFile(), offset, e.method(), e.crc(),
+        e.compressedSize(), e.size()));
+  }
+
+  public ClasspathByteChannel getSeekableByteChannelForPath(String path) throws IOException {
+    ClasspathEntry res = getEntry(path)
+        .orElseThrow(() -> new IOException("No resource found matching %s".formatted(path.toString())));
+
+    Optional<ClasspathByteChannel> region = getFileRegionChannel(res);
+    if (region.isPresent())
+      return region.get();
 
     long l = res.getLength();
-    SeekableByteChannel sb = null;
+    ClasspathByteChannel sb = null;
     if (l <= this.maxBufferSize) {
-      sb = new SeekableInMemoryByteChannel((int) l);
-      try (ReadableByteChannel inc = Channels.newChannel(res.open())) {
-        ByteBuffer buf = ByteBuffer.allocate((int) l);
-        while (inc.read(buf) != -1) {
-          buf.flip();
-          sb.write(buf);
-          buf.compact();
-        }
-        buf.flip();
-        while (buf.hasRemaining())
-          sb.write(buf);
-      }
+      if (contentCache.isEnabled())
+        sb = new ByteBufferByteChannel(contentCache.computeIfAbsent(res.getURI().toString(),
+            getZipEntry(res).map(ZipCentralDirectory.Entry::crc).orElse(-1L), cacheWeight(res.getPath()),
+            () -> ByteBuffer.wrap(readFully(res))));
+      else
+        sb = new SeekableInMemoryByteChannel(readFully(res));
     } else {
+      AtomicReference<SeekPointIndex> seekIndex = (seekIndexThreshold != null && l >= seekIndexThreshold)
+          ? seekIndexes.slot(res.getURI().toString())
+          : null;
       try {
-        sb = new InputStreamReadOnlySeekableByteChannel(() -> IBException.cet.returns(() -> res.open()),
-            res.getLength(), maxBufferSize);
+        sb = new InputStreamReadOnlySeekableByteChannel(() -> IBException.cet.returns(() -> newInputStream(res)),
+            res.getLength(), maxBufferSize, seekIndex, seekIndexInterval, readAheadDepth);
       } catch (IBException e) {
         // Cheating just a little
         throw (IBException) e.getCause();
@@ -186,25 +941,223 @@ public class ClasspathFileStore extends FileStore {
     return sb;
   }
 
-  public DirectoryStream<Path> newDirectoryStream(Path dir, Filter<? super Path> filter) {
-    String header = dir.toString();
-    ResourceFilter rf = new ResourceFilter() {
-      @Override
-      public boolean accept(Resource resource) {
-        return resource.getPath().startsWith(header);
+  /**
+   * A stream straight from the source: the file, the inflating jar entry, or the cached content. Nothing is buffered on
+   * top of it
+   *
+   * @param path resource path
+   * @return a fresh stream of the content
+   * @throws IOException if there is no such resource or it cannot be opened
+   */
+  public InputStream newInputStream(String path) throws IOException {
+    return newInputStream(getEntry(path).orElseThrow(() -> new NoSuchFileException(path)));
+  }
+
+  InputStream newInputStream(ClasspathEntry res) throws IOException {
+    if (contentCache.isEnabled()) {
+      Optional<ByteBuffer> cached = contentCache.get(res.getURI().toString());
+      if (cached.isPresent())
+        return Channels.newInputStream(new ByteBufferByteChannel(cached.get()));
+    }
+    File element = res.getElementFile();
+    if (element != null && element.isDirectory())
+      return Files.newInputStream(element.toPath().resolve(res.getPathRelativeToElement()));
+    Optional<ZipCentralDirectory.Entry> ze = getZipEntry(res);
+    if (ze.isPresent())
+      return handles.open(element, ze.get());
+    return res.open();
+  }
+
+  /**
+   * The content as a stream of chunks, read on background threads (virtual where the runtime has them) as the
+   * subscriber requests them. See {@link ResourcePublisher}
+   *
+   * @param path resource path
+   * @return a publisher of the content
+   * @throws IOException if there is no such resource
+   */
+  public Flow.Publisher<ByteBuffer> publish(String path) throws IOException {
+    return publish(path, ScanScheduler.background());
+  }
+
+  public Flow.Publisher<ByteBuffer> publish(String path, Executor executor) throws IOException {
+    ClasspathEntry res = getEntry(path).orElseThrow(() -> new NoSuchFileException(path));
+    return new ResourcePublisher(this, List.of(res), executor).content();
+  }
+
+  /**
+   * Every resource matching a glob, one after the other, in classpath order and, within a jar, in the order of its
+   * entries, so that each jar is read front to back
+   *
+   * @param glob as for {@code getPathMatcher("glob:...")}
+   * @return a publisher of the content, in parts marked with their resource
+   */
+  public ResourcePublisher publishAll(String glob) {
+    return publishAll(glob, ScanScheduler.background());
+  }
+
+  public ResourcePublisher publishAll(String glob, Executor executor) {
+    Map<File, Integer> order = getElementOrder();
+    Comparator<ClasspathEntry> byElement = Comparator
+        .comparingInt(e -> order.getOrDefault(e.getElementFile(), Integer.MAX_VALUE));
+    List<ClasspathEntry> l = new ArrayList<>(query().glob(glob).entries());
+    l.sort(byElement
+        .thenComparingLong(e -> getZipEntry(e).map(ZipCentralDirectory.Entry::localHeaderOffset).orElse(0L)));
+    return new ResourcePublisher(this, l, executor);
+  }
+
+  /**
+   * The whole content, in one array of exactly the resource's length, filled in place
+   *
+   * @param path resource path
+   * @return the content
+   * @throws IOException if there is no such resource or it cannot be read
+   */
+  public byte[] readAllBytes(String path) throws IOException {
+    ClasspathEntry res = getEntry(path).orElseThrow(() -> new NoSuchFileException(path));
+    if (contentCache.isEnabled()) {
+      Optional<ByteBuffer> cached = contentCache.get(res.getURI().toString());
+      if (cached.isPresent()) {
+        byte[] b = new byte[cached.get().remaining()];
+        cached.get().get(b);
+        return b;
+      }
+    }
+    long l = res.getLength();
+    if (l > Integer.MAX_VALUE - 8)
+      throw new OutOfMemoryError("%s is too large for an array".formatted(path));
+    if (l < 0) {
+      try (InputStream in = newInputStream(res)) {
+        return in.readAllBytes();
       }
+    }
+    byte[] b = new byte[(int) l];
+    Optional<ClasspathByteChannel> region = getFileRegionChannel(res);
+    if (region.isPresent()) {
+      try (ClasspathByteChannel ch = region.get()) {
+        ByteBuffer dst = ByteBuffer.wrap(b);
+        while (dst.hasRemaining())
+          if (ch.read(dst) < 0)
+            throw new EOFException("Unexpected end of %s".formatted(path));
+      }
+    } else {
+      try (InputStream in = newInputStream(res)) {
+        if (in.readNBytes(b, 0, b.length) < b.length)
+          throw new EOFException("Unexpected end of %s".formatted(path));
+      }
+    }
+    return b;
+  }
 
-    };
+  /**
+   * The whole content as text, decoded from the cached buffer or through a pooled buffer, with no intermediate array
+   * of the whole content. Malformed input fails, as with {@link Files#readString(Path, Charset)}
+   *
+   * @param path resource path
+   * @param cs   charset of the content
+   * @return the content
+   * @throws IOException if there is no such resource, it cannot be read, or it is not valid in {@code cs}
+   */
+  public String readString(String path, Charset cs) throws IOException {
+    ClasspathEntry res = getEntry(path).orElseThrow(() -> new NoSuchFileException(path));
+    CharsetDecoder dec = cs.newDecoder();
+    if (contentCache.isEnabled()) {
+      Optional<ByteBuffer> cached = contentCache.get(res.getURI().toString());
+      if (cached.isPresent())
+        return dec.decode(cached.get()).toString();
+    }
+    Optional<ClasspathByteChannel> region = getFileRegionChannel(res);
+    try (ReadableByteChannel ch = region.isPresent() ? region.get() : Channels.newChannel(newInputStream(res))) {
+      long l = res.getLength();
+      CharBuffer out = CharBuffer.allocate(
+          (int) Math.min(Integer.MAX_VALUE - 8, l >= 0 ? (long) (l * (double) dec.maxCharsPerByte()) + 1 : 8192));
+      ByteBuffer in = ByteBufferPool.shared().acquire();
+      try {
+        boolean eof = false;
+        while (!eof) {
+          eof = ch.read(in) < 0;
+          in.flip();
+          while (true) {
+            CoderResult r = dec.decode(in, out, eof);
+            if (r.isOverflow())
+              out = grow(out);
+            else if (r.isError())
+              r.throwException();
+            else
+              break;
+          }
+          in.compact();
+        }
+        while (dec.flush(out).isOverflow())
+          out = grow(out);
+      } finally {
+        ByteBufferPool.shared().release(in);
+      }
+      return out.flip().toString();
+    }
+  }
+
+  private static CharBuffer grow(CharBuffer b) {
+    CharBuffer g = CharBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, b.capacity() * 2L + 16));
+    return g.put(b.flip());
+  }
+
+  private byte[] readFully(ClasspathEntry res) throws IOException {
+    try (InputStream ins = newInputStream(res)) {
+      long l = res.getLength();
+      return l >= 0 ? ins.readNBytes((int) l) : ins.readAllBytes();
+    }
+  }
+
+  public DirectoryStream<Path> newDirectoryStream(Path dir, Filter<? super Path> filter) throws IOException {
+    final String d = dir.toString();
+    final ClasspathIndex idx = indexFor(d, true);
+    if (!idx.isDirectory(d))
+      throw new NotDirectoryException(d);
     return new DirectoryStream<Path>() {
+      private boolean open = true;
+      private boolean iterated = false;
 
       @Override
       public void close() throws IOException {
+        this.open = false;
       }
 
       @Override
       public Iterator<Path> iterator() {
-        return (Iterator<Path>) (getResourceForPath(dir.toString()).filter(rf).stream()
-            .map(res -> (Path) new ClasspathPath(cpfs, res)).toList().iterator());
+        if (!open)
+          throw new IllegalStateException("Directory stream is closed");
+        if (iterated)
+          throw new IllegalStateException("Iterator already obtained");
+        iterated = true;
+        final Iterator<String> children = idx.children(d);
+        return new Iterator<Path>() {
+          private Path next = null;
+
+          @Override
+          public boolean hasNext() {
+            // One candidate at a time, so rejected entries are never retained
+            while (next == null && open && children.hasNext()) {
+              Path candidate = new ClasspathPath(cpfs, children.next());
+              try {
+                if (filter == null || filter.accept(candidate))
+                  next = candidate;
+              } catch (IOException e) {
+                throw new DirectoryIteratorException(e);
+              }
+            }
+            return next != null;
+          }
+
+          @Override
+          public Path next() {
+            if (!hasNext())
+              throw new NoSuchElementException();
+            Path n = next;
+            next = null;
+            return n;
+          }
+        };
       }
     };
   }
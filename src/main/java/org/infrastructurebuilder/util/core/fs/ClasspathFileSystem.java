@@ -19,6 +19,7 @@ package org.infrastructurebuilder.util.core.fs;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
@@ -33,6 +34,7 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Flow;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
@@ -110,6 +112,41 @@ public class ClasspathFileSystem extends FileSystem implements Comparable<Classp
     return List.of(this.filestore);
   }
 
+  ClasspathFileStore getFileStore() {
+    return this.filestore;
+  }
+
+  /**
+   * @return the service providers declared on this classpath
+   */
+  public ClasspathServices getServices() {
+    return this.filestore.getServices();
+  }
+
+  /**
+   * @return class metadata (annotations, implementors, subclasses) of this classpath
+   */
+  public ClasspathClassIndex getClassIndex() {
+    return this.filestore.getClassIndex();
+  }
+
+  /**
+   * @param path resource path
+   * @return its content as a stream of chunks, see {@link ResourcePublisher}
+   * @throws IOException if there is no such resource
+   */
+  public Flow.Publisher<ByteBuffer> publish(String path) throws IOException {
+    return this.filestore.publish(path);
+  }
+
+  /**
+   * @param glob as for {@code getPathMatcher("glob:...")}
+   * @return the content of every matching resource, in classpath and jar order
+   */
+  public ResourcePublisher publishAll(String glob) {
+    return this.filestore.publishAll(glob);
+  }
+
   @Override
   public Set<String> supportedFileAttributeViews() {
     return STANDARD_SUPPORTED_VIEWS;
@@ -170,7 +207,7 @@ public class ClasspathFileSystem extends FileSystem implements Comparable<Classp
 
   @Override
   public WatchService newWatchService() throws IOException {
-    throw new UnsupportedOperationException("No WatchService Available");
+    return new ClasspathWatchService(this, this.filestore);
   }
 
   @Override
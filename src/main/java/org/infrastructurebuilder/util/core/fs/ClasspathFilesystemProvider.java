@@ -17,11 +17,15 @@
  */
 package org.infrastructurebuilder.util.core.fs;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.file.AccessMode;
 import java.nio.file.CopyOption;
 import java.nio.file.DirectoryStream;
@@ -64,6 +68,16 @@ public class ClasspathFilesystemProvider extends FileSystemProvider {
     return fs.get();
   }
 
+  /**
+   * @param path resource path
+   * @return true if the open classpath filesystem can tell that {@code path} does not exist
+   * @see ClasspathFileStore#isKnownAbsent(String)
+   */
+  public boolean isKnownAbsent(String path) {
+    ClasspathFileSystem f = fs.get();
+    return f != null && f.getFileStore().isKnownAbsent(path);
+  }
+
   @Override
   public FileSystem getFileSystem(URI uri) {
     return fs.get();
@@ -77,7 +91,7 @@ public class ClasspathFilesystemProvider extends FileSystemProvider {
   }
 
   @Override
-  public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+  public ClasspathByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
       throws IOException {
     // Kill your call if you try
     if (attrs != null && attrs.length > 0)
@@ -85,11 +99,51 @@ public class ClasspathFilesystemProvider extends FileSystemProvider {
     for (OpenOption opt : options)
       if (opt != READ)
         throw new IllegalArgumentException("Only READ is allowed here %s".formatted(options));
-    options = (Set<? extends OpenOption>) List.of(READ);
 
     return getFileStore(path).getSeekableByteChannelForPath(path.toString());
   }
 
+  /**
+   * The underlying stream (file, inflating jar entry or cached content), not a stream over {@link #newByteChannel}
+   */
+  @Override
+  public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+    for (OpenOption opt : options)
+      if (opt != READ)
+        throw new UnsupportedOperationException("Only READ is allowed here %s".formatted(opt));
+    return getFileStore(path).newInputStream(path.toString());
+  }
+
+  /**
+   * As {@link java.nio.file.Files#readAllBytes(Path)}, allocating the array once, at the resource's length
+   *
+   * @param path a classpath path
+   * @return the content
+   * @throws IOException if there is no such resource or it cannot be read
+   */
+  public byte[] readAllBytes(Path path) throws IOException {
+    return getFileStore(path).readAllBytes(path.toString());
+  }
+
+  /**
+   * As {@link java.nio.file.Files#readString(Path, Charset)}, without an intermediate array of the whole content
+   *
+   * @param path a classpath path
+   * @param cs   charset of the content
+   * @return the content
+   * @throws IOException if there is no such resource, it cannot be read, or it is not valid in {@code cs}
+   */
+  public String readString(Path path, Charset cs) throws IOException {
+    return getFileStore(path).readString(path.toString(), cs);
+  }
+
+  /**
+   * @return {@link #readString(Path, Charset)} in UTF-8
+   */
+  public String readString(Path path) throws IOException {
+    return readString(path, UTF_8);
+  }
+
   @Override
   public DirectoryStream<Path> newDirectoryStream(Path dir, Filter<? super Path> filter) throws IOException {
     return getFileStore(dir).newDirectoryStream(dir, filter);
@@ -0,0 +1,959 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.IntStream;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * The sorted path index of a classpath filesystem.
+ *
+ * Every distinct resource path appears once, in lexical order, together with the entry that supplies it (the first one
+ * in classpath order). Directories are not stored; they exist implicitly as prefixes of the stored paths, which is
+ * how jars and scans present them anyway.
+ *
+ * The index is self-contained and compact. All paths live in one UTF-8 byte arena, front coded: they are cut into
+ * blocks of {@value #BLOCK}, the first path of each block is stored whole and every other one as the length of the
+ * prefix it shares with its predecessor plus the remaining bytes. Lookups binary search the block heads and then scan
+ * one block, comparing bytes; a {@code String} is only decoded when a caller asks for a path. Paths are ordered by
+ * code point, which is the unsigned byte order of their UTF-8 encoding.
+ *
+ * Everything needed to re-open an entry (its element, and for jar entries the central directory record) is held in
+ * primitive arrays. {@link ClasspathEntry} instances are only materialized on lookup. Entries that cannot be re-opened
+ * from a file (modules, nested or remote jars) are retained as-is; see {@link #hasRetainedEntries()}.
+ *
+ * Bloom filters over the whole index and over each element's paths answer most misses without touching the arena.
+ *
+ * The compact form is immutable. Changes found after it is built (a watched directory element) go to a small sorted
+ * overlay of added, replaced and removed paths that lookups and listings consult first. Ids ({@link #find(String)},
+ * {@link #getEntry(int)}) address the compact form only.
+ *
+ * Secondary indexes over the ids (by extension, by element, by length) are derived from the compact form on the first
+ * query that needs them, and answer as {@link BitSet}s of ids; see {@link ResourceQuery}.
+ */
+public class ClasspathIndex {
+  public static final double DEFAULT_BLOOM_FPP = 0.01;
+  private static final String SEP = "/";
+  // Sorts immediately after every path that starts with "x/", given the prefix "x"
+  private static final char AFTER_SEP = (char) ('/' + 1);
+  private static final int RETAINED = -1;
+  private static final int BLOCK = 16;
+  private static final Comparator<ClasspathEntry> BY_PATH = (a, b) -> comparePaths(a.getPath(), b.getPath());
+
+  // Element table
+  private final File[] elements;
+  private final String[] roots;
+  // Front coded path arena, and the offset of each block head in it
+  private final byte[] arena;
+  private final int[] blocks;
+  private final int maxPathBytes;
+  // Per entry
+  private final int[] element;
+  private final long[] length;
+  private final long[] localHeaderOffset;
+  private final long[] compressedSize;
+  private final int[] crc;
+  private final byte[] method;
+  private final Map<Integer, ClasspathEntry> retained;
+  // Bloom filters, over every path and over the paths supplied by each element
+  private final BloomFilter<CharSequence> filter;
+  private final List<BloomFilter<CharSequence>> elementFilters;
+  private final ShadowingReport shadowing;
+  // Changes since the build. An empty value removes the path
+  private final ConcurrentSkipListMap<String, Optional<ClasspathEntry>> overlay = new ConcurrentSkipListMap<>(
+      ClasspathIndex::comparePaths);
+  private volatile Secondary secondary;
+
+  /**
+   * Ids grouped by extension, by element and by length
+   */
+  private static final class Secondary {
+    // Ascending ids per lower case extension ("" for none)
+    private final Map<String, int[]> byExtension;
+    // Ids grouped by element, retained entries last. Element i holds byElement[elementStart[i]..elementStart[i + 1]]
+    private final int[] byElement;
+    private final int[] elementStart;
+    // Ids by ascending length
+    private final int[] byLength;
+
+    Secondary(Map<String, int[]> byExtension, int[] byElement, int[] elementStart, int[] byLength) {
+      this.byExtension = byExtension;
+      this.byElement = byElement;
+      this.elementStart = elementStart;
+      this.byLength = byLength;
+    }
+  }
+
+  /**
+   * Sort the resources of one classpath element by path. Elements are independent, so this is the per-element unit of
+   * work for a {@link ScanScheduler}.
+   *
+   * @param resources resources of one element
+   * @return the resources sorted by path
+   */
+  public static ClasspathEntry[] sortSegment(List<? extends ClasspathEntry> resources) {
+    ClasspathEntry[] all = resources.toArray(new ClasspathEntry[0]);
+    // Stable, so within an element the first occurrence of a path stays first
+    Arrays.sort(all, BY_PATH);
+    return all;
+  }
+
+  /**
+   * Merge sorted segments into one index. Where several segments hold a path, the one earliest in {@code segments}
+   * (classpath order) supplies it.
+   *
+   * @param segments sorted segments in classpath order
+   * @return the index
+   */
+  public static ClasspathIndex merge(List<ClasspathEntry[]> segments) {
+    return merge(segments, DEFAULT_BLOOM_FPP, ShadowingPolicy.CLASSPATH_ORDER);
+  }
+
+  /**
+   * @param segments sorted segments in classpath order
+   * @param fpp      false positive probability of the Bloom filters
+   * @param policy   which entry supplies a path held by several segments
+   * @return the index
+   * @throws IllegalStateException if {@code policy} is {@link ShadowingPolicy#ERROR} and a path is shadowed
+   * @see #merge(List)
+   */
+  public static ClasspathIndex merge(List<ClasspathEntry[]> segments, double fpp, ShadowingPolicy policy) {
+    if (!(fpp > 0.0 && fpp < 1.0))
+      throw new IllegalArgumentException("Bloom filter false positive probability must be in (0, 1) %s".formatted(fpp));
+    int total = 0;
+    for (ClasspathEntry[] seg : segments)
+      total += seg.length;
+    PriorityQueue<int[]> heads = new PriorityQueue<>((x, y) -> {
+      int c = BY_PATH.compare(segments.get(x[0])[x[1]], segments.get(y[0])[y[1]]);
+      return c != 0 ? c : Integer.compare(x[0], y[0]);
+    });
+    for (int i = 0; i < segments.size(); ++i)
+      if (segments.get(i).length > 0)
+        heads.add(new int[] { i, 0 });
+    ClasspathEntry[] r = new ClasspathEntry[total];
+    int n = 0;
+    List<ClasspathEntry> same = new ArrayList<>();
+    List<ShadowingReport.Shadowed> shadowed = new ArrayList<>();
+    while (!heads.isEmpty()) {
+      // Every entry for the next path, in classpath order
+      same.clear();
+      do {
+        int[] h = heads.poll();
+        ClasspathEntry[] seg = segments.get(h[0]);
+        same.add(seg[h[1]]);
+        if (++h[1] < seg.length)
+          heads.add(h);
+      } while (!heads.isEmpty()
+          && segments.get(heads.peek()[0])[heads.peek()[1]].getPath().equals(same.get(0).getPath()));
+      int w = same.size() == 1 ? 0 : policy.choose(same);
+      r[n++] = same.get(w);
+      if (same.size() > 1) {
+        File winner = same.get(w).getElementFile();
+        List<File> others = new ArrayList<>(same.size() - 1);
+        for (int i = 0; i < same.size(); ++i)
+          if (i != w && !Objects.equals(winner, same.get(i).getElementFile()))
+            others.add(same.get(i).getElementFile());
+        if (!others.isEmpty())
+          shadowed.add(new ShadowingReport.Shadowed(same.get(w).getPath(), winner, others));
+      }
+    }
+    if (policy == ShadowingPolicy.ERROR) {
+      List<ShadowingReport.Shadowed> conflicts = shadowed.stream().filter(s -> !ShadowingPolicy.isExempt(s.path()))
+          .toList();
+      if (!conflicts.isEmpty())
+        throw new IllegalStateException("%d resource paths are shadowed, first %s from %s over %s".formatted(
+            conflicts.size(), conflicts.get(0).path(), conflicts.get(0).winner(), conflicts.get(0).shadowed()));
+    }
+    return new ClasspathIndex(r, n, fpp, new ShadowingReport(policy, shadowed));
+  }
+
+  private ClasspathIndex(ClasspathEntry[] sorted, int n, double fpp, ShadowingReport shadowing) {
+    this.shadowing = shadowing;
+    // One element per file and root, as a fat jar holds several ("BOOT-INF/classes/", "BOOT-INF/lib/x.jar!/")
+    Map<String, Integer> elementIds = new HashMap<>();
+    List<File> els = new ArrayList<>();
+    List<String> rts = new ArrayList<>();
+    ArenaWriter w = new ArenaWriter();
+    this.blocks = new int[(n + BLOCK - 1) / BLOCK];
+    this.element = new int[n];
+    this.length = new long[n];
+    this.localHeaderOffset = new long[n];
+    this.compressedSize = new long[n];
+    this.crc = new int[n];
+    this.method = new byte[n];
+    this.retained = new HashMap<>();
+    byte[] prev = null;
+    int longest = 0;
+    for (int i = 0; i < n; ++i) {
+      ClasspathEntry e = sorted[i];
+      String p = e.getPath();
+      byte[] b = p.getBytes(StandardCharsets.UTF_8);
+      longest = Math.max(longest, b.length);
+      if (i % BLOCK == 0) {
+        blocks[i / BLOCK] = w.size();
+        w.varint(b.length);
+        w.bytes(b, 0, b.length);
+      } else {
+        int shared = Arrays.mismatch(prev, b);
+        if (shared < 0)
+          shared = b.length;
+        // Never split a multi-byte sequence, so that a suffix is always whole characters
+        while (shared > 0 && shared < b.length && (b[shared] & 0xC0) == 0x80)
+          --shared;
+        w.varint(shared);
+        w.varint(b.length - shared);
+        w.bytes(b, shared, b.length - shared);
+      }
+      prev = b;
+      length[i] = e.getLength();
+      localHeaderOffset[i] = -1L;
+      compressedSize[i] = -1L;
+      element[i] = RETAINED;
+      if (!(e instanceof ElementEntry ee))
+        continue;
+      String rel = ee.getPathRelativeToElement();
+      if (!rel.endsWith(p)) {
+        retained.put(i, e);
+        continue;
+      }
+      String root = rel.substring(0, rel.length() - p.length());
+      String elementKey = ee.getElementFile().getPath() + '\0' + root;
+      Integer id = elementIds.get(elementKey);
+      if (id == null) {
+        id = els.size();
+        elementIds.put(elementKey, id);
+        els.add(ee.getElementFile());
+        rts.add(root);
+      }
+      element[i] = id;
+      if (ee.isJarEntry()) {
+        ZipCentralDirectory.Entry z = ee.getZipEntry();
+        localHeaderOffset[i] = z.localHeaderOffset();
+        compressedSize[i] = z.compressedSize();
+        crc[i] = (int) z.crc();
+        method[i] = (byte) z.method();
+      }
+    }
+    this.arena = w.toByteArray();
+    this.maxPathBytes = longest;
+    for (int i = 0; i < n; ++i)
+      if (element[i] == RETAINED && !retained.containsKey(i))
+        retained.put(i, sorted[i]);
+    this.elements = els.toArray(new File[0]);
+    this.roots = rts.toArray(new String[0]);
+
+    this.filter = BloomFilter.create(Funnels.unencodedCharsFunnel(), Math.max(n, 1), fpp);
+    int[] counts = new int[elements.length];
+    for (int i = 0; i < n; ++i)
+      if (element[i] != RETAINED)
+        ++counts[element[i]];
+    this.elementFilters = new ArrayList<>(elements.length);
+    for (int count : counts)
+      elementFilters.add(BloomFilter.create(Funnels.unencodedCharsFunnel(), Math.max(count, 1), fpp));
+    for (int i = 0; i < n; ++i) {
+      String p = sorted[i].getPath();
+      filter.put(p);
+      if (element[i] != RETAINED)
+        elementFilters.get(element[i]).put(p);
+    }
+  }
+
+  /**
+   * @return number of paths in the compact form. Ids run from 0 to this
+   */
+  public int size() {
+    return element.length;
+  }
+
+  /**
+   * @return number of changes recorded since the index was built
+   */
+  public int getOverlaySize() {
+    return overlay.size();
+  }
+
+  /**
+   * Record that {@code e} now supplies its path
+   */
+  void put(ClasspathEntry e) {
+    overlay.put(e.getPath(), Optional.of(e));
+  }
+
+  /**
+   * Record that nothing supplies {@code path} any more
+   */
+  void remove(String path) {
+    if (find(path) < 0)
+      overlay.remove(path);
+    else
+      overlay.put(path, Optional.empty());
+  }
+
+  /**
+   * @return every path held by more than one element, with the element that supplies it
+   */
+  public ShadowingReport getShadowingReport() {
+    return shadowing;
+  }
+
+  /**
+   * @return true if some entries could not be detached from the scan that found them
+   */
+  public boolean hasRetainedEntries() {
+    return !retained.isEmpty();
+  }
+
+  public String getPath(int id) {
+    Cursor c = new Cursor();
+    c.seek(id);
+    return c.string();
+  }
+
+  /**
+   * @param id entry id
+   * @return a (freshly materialized) entry for {@code id}
+   */
+  public ClasspathEntry getEntry(int id) {
+    int el = element[id];
+    if (el == RETAINED)
+      return retained.get(id);
+    String path = getPath(id);
+    String rel = roots[el] + path;
+    if (localHeaderOffset[id] < 0)
+      return ElementEntry.ofFile(elements[el], path, rel, length[id]);
+    return ElementEntry.ofJar(elements[el], path, new ZipCentralDirectory.Entry(rel, Byte.toUnsignedInt(method[id]),
+        Integer.toUnsignedLong(crc[id]), compressedSize[id], length[id], localHeaderOffset[id]));
+  }
+
+  /**
+   * @param path resource path
+   * @return the id of {@code path}, or -1 if it is not a resource
+   */
+  public int find(String path) {
+    if (!filter.mightContain(path))
+      return -1;
+    int i = search(path);
+    return i < 0 ? -1 : i;
+  }
+
+  /**
+   * @param path resource path
+   * @return false if {@code path} is certainly not in the index
+   */
+  public boolean mightContain(String path) {
+    return filter.mightContain(path) || (!overlay.isEmpty() && overlay.containsKey(path));
+  }
+
+  /**
+   * @param element a classpath element
+   * @param path    resource path
+   * @return false if {@code element} certainly does not supply {@code path} to the index. Elements the index does not
+   *         know as such (modules, nested jars) always answer true
+   */
+  public boolean mightContain(File element, String path) {
+    boolean known = false;
+    for (int i = 0; i < elements.length; ++i)
+      if (elements[i].equals(element)) {
+        if (elementFilters.get(i).mightContain(path))
+          return true;
+        known = true;
+      }
+    return !known;
+  }
+
+  public Optional<ClasspathEntry> get(String path) {
+    if (!overlay.isEmpty()) {
+      Optional<ClasspathEntry> o = overlay.get(path);
+      if (o != null)
+        return o;
+    }
+    int i = find(path);
+    return i < 0 ? Optional.empty() : Optional.of(getEntry(i));
+  }
+
+  private Secondary secondary() {
+    Secondary sec = this.secondary;
+    if (sec == null) {
+      synchronized (this) {
+        sec = this.secondary;
+        if (sec == null)
+          this.secondary = sec = buildSecondary();
+      }
+    }
+    return sec;
+  }
+
+  private Secondary buildSecondary() {
+    int n = size();
+    // Extensions: count, then fill, so each id list is exactly sized and ascending
+    String[] ext = new String[n];
+    Map<String, String> interned = new HashMap<>();
+    Map<String, int[]> fill = new HashMap<>();
+    Cursor c = new Cursor();
+    for (int i = 0; i < n; ++i) {
+      c.seek(i);
+      int dot = -1;
+      for (int k = c.len - 1; k >= 0 && c.buf[k] != '/'; --k)
+        if (c.buf[k] == '.') {
+          dot = k;
+          break;
+        }
+      String e = dot < 0 ? ""
+          : new String(c.buf, dot + 1, c.len - dot - 1, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT);
+      ext[i] = interned.computeIfAbsent(e, k -> k);
+      fill.computeIfAbsent(ext[i], k -> new int[1])[0]++;
+    }
+    Map<String, int[]> byExtension = new HashMap<>();
+    fill.forEach((k, v) -> {
+      byExtension.put(k, new int[v[0]]);
+      v[0] = 0;
+    });
+    for (int i = 0; i < n; ++i)
+      byExtension.get(ext[i])[fill.get(ext[i])[0]++] = i;
+    // Elements: a counting sort, retained entries in the last bucket
+    int buckets = elements.length + 1;
+    int[] elementStart = new int[buckets + 1];
+    for (int i = 0; i < n; ++i)
+      ++elementStart[(element[i] == RETAINED ? elements.length : element[i]) + 1];
+    for (int b = 0; b < buckets; ++b)
+      elementStart[b + 1] += elementStart[b];
+    int[] at = Arrays.copyOf(elementStart, buckets);
+    int[] byElement = new int[n];
+    for (int i = 0; i < n; ++i)
+      byElement[at[element[i] == RETAINED ? elements.length : element[i]]++] = i;
+    int[] byLength = IntStream.range(0, n).boxed()
+        .sorted(Comparator.<Integer> comparingLong(i -> length[i]).thenComparingInt(i -> i)).mapToInt(i -> i)
+        .toArray();
+    return new Secondary(byExtension, byElement, elementStart, byLength);
+  }
+
+  /**
+   * @param extension an extension without the dot, in any case ("json"), or "" for paths without one
+   * @return ids of the paths whose last segment has that extension
+   */
+  public BitSet withExtension(String extension) {
+    BitSet b = new BitSet(size());
+    for (int id : secondary().byExtension.getOrDefault(extension.toLowerCase(Locale.ROOT), new int[0]))
+      b.set(id);
+    return b;
+  }
+
+  /**
+   * @param f a classpath element: a jar or directory, or a part of a jar ({@code outer.jar!/BOOT-INF/lib/x.jar},
+   *          {@code outer.jar!/BOOT-INF/classes}). A jar also stands for every part of it
+   * @return ids of the paths {@code f} supplies
+   */
+  public BitSet ofElement(File f) {
+    String p = f.getPath();
+    int bang = p.indexOf("!/");
+    File outer = bang > 0 ? new File(p.substring(0, bang)) : f;
+    String inner = bang > 0 ? p.substring(bang + 2) : null;
+    String root = inner == null ? null : inner.endsWith(".jar") ? inner + "!/" : toPrefix(inner);
+    Secondary sec = secondary();
+    BitSet b = new BitSet(size());
+    for (int el = 0; el < elements.length; ++el)
+      if (elements[el].equals(outer) && (root == null || roots[el].equals(root)))
+        for (int j = sec.elementStart[el]; j < sec.elementStart[el + 1]; ++j)
+          b.set(sec.byElement[j]);
+    return b;
+  }
+
+  /**
+   * @param min least length, inclusive
+   * @param max greatest length, inclusive
+   * @return ids of the paths whose length is known and in range
+   */
+  public BitSet withLength(long min, long max) {
+    int[] byLength = secondary().byLength;
+    BitSet b = new BitSet(size());
+    for (int j = firstWithLength(byLength, Math.max(min, 0L)); j < byLength.length && length[byLength[j]] <= max; ++j)
+      b.set(byLength[j]);
+    return b;
+  }
+
+  private int firstWithLength(int[] byLength, long min) {
+    int lo = 0;
+    int hi = byLength.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (length[byLength[mid]] < min)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  /**
+   * @param dir a directory, "" for the root
+   * @return ids of the paths below it, at any depth
+   */
+  public BitSet under(String dir) {
+    String prefix = toPrefix(dir);
+    BitSet b = new BitSet(size());
+    if (prefix.isEmpty())
+      b.set(0, size());
+    else
+      b.set(lowerBound(prefix), lowerBound(prefix.substring(0, prefix.length() - 1) + AFTER_SEP));
+    return b;
+  }
+
+  /**
+   * @param among candidate ids
+   * @param limit most ids to return
+   * @return ids from {@code among}, longest first
+   */
+  public int[] longest(BitSet among, int limit) {
+    int[] byLength = secondary().byLength;
+    int[] r = new int[Math.min(limit, among.cardinality())];
+    int k = 0;
+    for (int j = byLength.length - 1; j >= 0 && k < r.length; --j)
+      if (among.get(byLength[j]))
+        r[k++] = byLength[j];
+    return r;
+  }
+
+  /**
+   * @param id entry id
+   * @return the length of the entry, or -1 if unknown
+   */
+  public long getLength(int id) {
+    return length[id];
+  }
+
+  /**
+   * @return ids whose paths the overlay has replaced or removed, so that the compact form no longer answers for them
+   */
+  BitSet overlaid() {
+    BitSet b = new BitSet(size());
+    for (String p : overlay.keySet()) {
+      int i = find(p);
+      if (i >= 0)
+        b.set(i);
+    }
+    return b;
+  }
+
+  /**
+   * @return entries the overlay adds or replaces, in path order
+   */
+  List<ClasspathEntry> overlayEntries() {
+    List<ClasspathEntry> l = new ArrayList<>();
+    for (Optional<ClasspathEntry> o : overlay.values())
+      o.ifPresent(l::add);
+    return l;
+  }
+
+  /**
+   * @return the first id whose path is at or after {@code key}
+   */
+  public int lowerBound(String key) {
+    int i = search(key);
+    return i < 0 ? -(i + 1) : i;
+  }
+
+  private int search(String key) {
+    byte[] k = key.getBytes(StandardCharsets.UTF_8);
+    if (blocks.length == 0)
+      return -1;
+    // Last block whose head is <= key
+    int lo = 0;
+    int hi = blocks.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      int at = blocks[mid];
+      int len = readVarint(at);
+      at += varintSize(len);
+      int c = Arrays.compareUnsigned(arena, at, at + len, k, 0, k.length);
+      if (c == 0)
+        return mid * BLOCK;
+      if (c < 0)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    Cursor c = new Cursor();
+    c.seek(lo * BLOCK);
+    int end = Math.min(size(), (lo + 1) * BLOCK);
+    while (true) {
+      int r = c.compareTo(k);
+      if (r == 0)
+        return c.id;
+      if (r > 0)
+        return -(c.id + 1);
+      if (c.id + 1 >= end)
+        return -(c.id + 2);
+      c.next();
+    }
+  }
+
+  private int readVarint(int at) {
+    int v = 0;
+    for (int shift = 0;; shift += 7) {
+      byte b = arena[at++];
+      v |= (b & 0x7F) << shift;
+      if (b >= 0)
+        return v;
+    }
+  }
+
+  private static int varintSize(int v) {
+    int n = 1;
+    while ((v >>>= 7) != 0)
+      ++n;
+    return n;
+  }
+
+  /**
+   * Decodes paths forward from a block head into a reusable buffer
+   */
+  private final class Cursor {
+    private final byte[] buf = new byte[maxPathBytes];
+    private int id = -1;
+    private int len;
+    // Arena offset of the record after the current one
+    private int next;
+
+    void seek(int target) {
+      if (id < 0 || target < id || target / BLOCK != id / BLOCK) {
+        int at = blocks[target / BLOCK];
+        len = readVarint(at);
+        at += varintSize(len);
+        System.arraycopy(arena, at, buf, 0, len);
+        next = at + len;
+        id = target - target % BLOCK;
+      }
+      while (id < target)
+        next();
+    }
+
+    void next() {
+      if ((id + 1) % BLOCK == 0) {
+        seek(id + 1);
+        return;
+      }
+      int at = next;
+      int shared = readVarint(at);
+      at += varintSize(shared);
+      int suffix = readVarint(at);
+      at += varintSize(suffix);
+      System.arraycopy(arena, at, buf, shared, suffix);
+      len = shared + suffix;
+      next = at + suffix;
+      ++id;
+    }
+
+    int compareTo(byte[] key) {
+      return Arrays.compareUnsigned(buf, 0, len, key, 0, key.length);
+    }
+
+    boolean startsWith(byte[] prefix) {
+      return len >= prefix.length && Arrays.equals(buf, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    int indexOfSep(int from) {
+      for (int k = from; k < len; ++k)
+        if (buf[k] == '/')
+          return k;
+      return -1;
+    }
+
+    String string() {
+      return string(len);
+    }
+
+    String string(int upTo) {
+      return new String(buf, 0, upTo, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static final class ArenaWriter {
+    private byte[] buf = new byte[4096];
+    private int size;
+
+    int size() {
+      return size;
+    }
+
+    void varint(int v) {
+      while ((v & ~0x7F) != 0) {
+        put((byte) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      put((byte) v);
+    }
+
+    void bytes(byte[] b, int off, int len) {
+      ensure(len);
+      System.arraycopy(b, off, buf, size, len);
+      size += len;
+    }
+
+    private void put(byte b) {
+      ensure(1);
+      buf[size++] = b;
+    }
+
+    private void ensure(int n) {
+      if (size + n > buf.length)
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, size);
+    }
+  }
+
+  /**
+   * Compare paths by code point, which is the order of their UTF-8 bytes
+   */
+  static int comparePaths(String a, String b) {
+    int n = Math.min(a.length(), b.length());
+    for (int i = 0; i < n; ++i) {
+      char x = a.charAt(i);
+      char y = b.charAt(i);
+      if (x != y) {
+        // Only surrogates disagree with UTF-16 order; as supplementary code points they sort above the whole BMP
+        boolean sx = Character.isSurrogate(x);
+        boolean sy = Character.isSurrogate(y);
+        return sx == sy ? x - y : (sx ? 1 : -1);
+      }
+    }
+    return a.length() - b.length();
+  }
+
+  /**
+   * @return every path, in order
+   */
+  public Iterator<String> paths() {
+    if (overlay.isEmpty())
+      return basePaths();
+    // Both are in path order, so merge them. The overlay's view of a path replaces the compact form's
+    final Iterator<String> base = basePaths();
+    final Iterator<Map.Entry<String, Optional<ClasspathEntry>>> changes = overlay.entrySet().iterator();
+    return new Iterator<String>() {
+      private String b = nextBase();
+      private Map.Entry<String, Optional<ClasspathEntry>> o = changes.hasNext() ? changes.next() : null;
+      private String next = null;
+
+      private String nextBase() {
+        return base.hasNext() ? base.next() : null;
+      }
+
+      private String advance() {
+        while (b != null || o != null) {
+          int c = b == null ? 1 : o == null ? -1 : comparePaths(b, o.getKey());
+          if (c < 0) {
+            String r = b;
+            b = nextBase();
+            return r;
+          }
+          Map.Entry<String, Optional<ClasspathEntry>> r = o;
+          o = changes.hasNext() ? changes.next() : null;
+          if (c == 0)
+            b = nextBase();
+          if (r.getValue().isPresent())
+            return r.getKey();
+        }
+        return null;
+      }
+
+      @Override
+      public boolean hasNext() {
+        if (next == null)
+          next = advance();
+        return next != null;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        String n = next;
+        next = null;
+        return n;
+      }
+    };
+  }
+
+  private Iterator<String> basePaths() {
+    return new Iterator<String>() {
+      private final Cursor c = new Cursor();
+      private int cursor = 0;
+
+      @Override
+      public boolean hasNext() {
+        return cursor < size();
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        c.seek(cursor++);
+        return c.string();
+      }
+    };
+  }
+
+  /**
+   * @param path a path with no leading or trailing separator ("" is the root)
+   * @return true if some resource lives below {@code path}
+   */
+  public boolean isDirectory(String path) {
+    String prefix = toPrefix(path);
+    if (prefix.isEmpty())
+      return true;
+    if (!overlay.isEmpty()) {
+      for (Map.Entry<String, Optional<ClasspathEntry>> e : overlay.tailMap(prefix).entrySet()) {
+        if (!e.getKey().startsWith(prefix))
+          break;
+        if (e.getValue().isPresent())
+          return true;
+      }
+    }
+    byte[] p = prefix.getBytes(StandardCharsets.UTF_8);
+    Cursor c = new Cursor();
+    for (int i = lowerBound(prefix); i < size(); ++i) {
+      c.seek(i);
+      if (!c.startsWith(p))
+        return false;
+      // Anything the overlay knows of is either counted above or removed
+      if (overlay.isEmpty() || !overlay.containsKey(c.string()))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Lazily list the immediate children of a directory.
+   *
+   * Files are returned by their full path. Sub-directories are synthesized from the first path found below them and
+   * returned once (without a trailing separator), after which their whole subtree is skipped with a single binary
+   * search. Nothing is materialized ahead of the caller.
+   *
+   * @param dir a path with no leading or trailing separator ("" is the root)
+   * @return the full paths of the children of {@code dir}
+   */
+  public Iterator<String> children(String dir) {
+    if (overlay.isEmpty())
+      return baseChildren(dir);
+    // Rare, and overlays are small, so not lazy
+    String prefix = toPrefix(dir);
+    Set<String> r = new LinkedHashSet<>();
+    for (Iterator<String> i = baseChildren(dir); i.hasNext();) {
+      String c = i.next();
+      Optional<ClasspathEntry> o = overlay.get(c);
+      if (o != null) {
+        if (o.isPresent())
+          r.add(c);
+      } else if (find(c) >= 0 || isDirectory(c))
+        r.add(c);
+    }
+    for (Map.Entry<String, Optional<ClasspathEntry>> e : overlay.tailMap(prefix).entrySet()) {
+      String k = e.getKey();
+      if (!k.startsWith(prefix))
+        break;
+      if (e.getValue().isEmpty())
+        continue;
+      int slash = k.indexOf('/', prefix.length());
+      r.add(slash < 0 ? k : k.substring(0, slash));
+    }
+    return r.iterator();
+  }
+
+  private Iterator<String> baseChildren(String dir) {
+    final String prefix = toPrefix(dir);
+    final byte[] p = prefix.getBytes(StandardCharsets.UTF_8);
+    return new Iterator<String>() {
+      private final Cursor c = new Cursor();
+      private int cursor = prefix.isEmpty() ? 0 : lowerBound(prefix);
+      private String next = null;
+
+      private String advance() {
+        while (cursor < size()) {
+          c.seek(cursor);
+          if (!c.startsWith(p))
+            break;
+          int slash = c.indexOfSep(p.length);
+          if (slash < 0) {
+            ++cursor;
+            return c.string();
+          }
+          if (slash == p.length) { // Empty segment, "a//b". Not something we can list
+            ++cursor;
+            continue;
+          }
+          String sub = c.string(slash);
+          cursor = lowerBound(sub + AFTER_SEP);
+          return sub;
+        }
+        return null;
+      }
+
+      @Override
+      public boolean hasNext() {
+        if (next == null)
+          next = advance();
+        return next != null;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        String n = next;
+        next = null;
+        return n;
+      }
+    };
+  }
+
+  /**
+   * @return {@code path} with leading separators stripped and a single trailing separator, or "" for the root
+   */
+  static String toPrefix(String path) {
+    String p = path;
+    while (p.startsWith(SEP))
+      p = p.substring(1);
+    while (p.endsWith(SEP))
+      p = p.substring(0, p.length() - 1);
+    return p.isEmpty() ? "" : p + SEP;
+  }
+
+}
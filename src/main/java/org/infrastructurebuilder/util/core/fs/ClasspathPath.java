@@ -27,6 +27,7 @@ import java.nio.file.FileSystem;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.WatchEvent.Kind;
 import java.nio.file.WatchEvent.Modifier;
 import java.nio.file.WatchKey;
@@ -64,7 +65,7 @@ public class ClasspathPath implements Path {
     } catch (MalformedURLException e) {
       throw new RuntimeException(e);
     }
-    if (!(path.toString().equals(fileSystem.getSeparator()) && path.startsWith(fileSystem.getSeparator())))
+    if (path.startsWith(fileSystem.getSeparator()) && !path.equals(fileSystem.getSeparator()))
       throw new UnsupportedOperationException("Classpath paths must be relative {}".formatted(path));
   }
 
@@ -196,7 +197,9 @@ public class ClasspathPath implements Path {
 
   @Override
   public WatchKey register(WatchService watcher, Kind<?>[] events, Modifier... modifiers) throws IOException {
-    throw new UnsupportedOperationException("register");
+    if (watcher instanceof ClasspathWatchService cws)
+      return cws.register(this, events);
+    throw new ProviderMismatchException("Not a classpath WatchService %s".formatted(watcher));
   }
 
   @Override
@@ -204,6 +207,11 @@ public class ClasspathPath implements Path {
     return this.path.compareTo(other.toString());
   }
 
+  @Override
+  public String toString() {
+    return this.path;
+  }
+
   @Override
   public int hashCode() {
     return Objects.hash(fileSystem, path);
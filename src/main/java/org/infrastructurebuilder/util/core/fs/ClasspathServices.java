@@ -0,0 +1,257 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Service providers declared in {@code META-INF/services/} by every element of the classpath, shadowed or not, in
+ * classpath order. Built once from the scan, so that finding the providers of a service is a map lookup rather than a
+ * search of every element.
+ *
+ * With {@code indexDirectory} configured the providers are persisted there with a fingerprint of every element (jars
+ * by size and modification time, directories by their service files), and later filesystems over the same classpath
+ * use them without scanning while every fingerprint still matches.
+ *
+ * {@link #load(Class, ClassLoader)} and {@link #stream(Class, ClassLoader)} behave as their {@link ServiceLoader}
+ * namesakes for classpath providers: a provider is instantiated with its public no-argument constructor, duplicates are
+ * ignored and failures are reported as {@link ServiceConfigurationError}.
+ */
+public class ClasspathServices {
+  public static final String PREFIX = "META-INF/services/";
+  private static final int MAGIC = 0x43505356; // "CPSV"
+  private static final int VERSION = 3;
+
+  /**
+   * @param service   the service interface or class name
+   * @param className the provider class name
+   * @param element   the element declaring it, or null if it is not backed by a file
+   */
+  public record Provider(String service, String className, File element) {
+  }
+
+  private final ClasspathFileStore store;
+  private final IndexFile file;
+  private Map<String, List<Provider>> providers;
+
+  ClasspathServices(ClasspathFileStore store, ClasspathConfig config) {
+    this.store = store;
+    this.file = IndexFile.of(config, "services", MAGIC, VERSION).orElse(null);
+  }
+
+  /**
+   * @param service service name, as in the name of its {@code META-INF/services/} file
+   * @return its providers, in classpath order
+   */
+  public List<Provider> getProviders(String service) {
+    return providers().getOrDefault(service, List.of());
+  }
+
+  /**
+   * @return every service that has a provider
+   */
+  public Set<String> getServices() {
+    return providers().keySet();
+  }
+
+  /**
+   * As {@link ServiceLoader#stream()}
+   *
+   * @param service the service type
+   * @param loader  loads the providers
+   * @return the providers of {@code service}, not yet loaded
+   */
+  public <S> Stream<ServiceLoader.Provider<S>> stream(Class<S> service, ClassLoader loader) {
+    Objects.requireNonNull(service);
+    return getProviders(service.getName()).stream().map(p -> new LazyProvider<>(service, p.className(), loader));
+  }
+
+  /**
+   * As iterating a {@link ServiceLoader}: each provider is loaded and instantiated as the iteration reaches it
+   *
+   * @param service the service type
+   * @param loader  loads the providers
+   * @return the provider instances
+   */
+  public <S> Iterable<S> load(Class<S> service, ClassLoader loader) {
+    return () -> stream(service, loader).map(ServiceLoader.Provider::get).iterator();
+  }
+
+  /**
+   * Forget the providers, so that they are found again on next use
+   */
+  public synchronized void invalidate() {
+    this.providers = null;
+  }
+
+  private synchronized Map<String, List<Provider>> providers() {
+    if (this.providers == null) {
+      Map<String, List<Provider>> m = file != null ? read() : null;
+      if (m == null) {
+        m = build();
+        try {
+          save(m);
+        } catch (IOException e) {
+          // Only a cache
+        }
+      }
+      this.providers = m;
+    }
+    return this.providers;
+  }
+
+  /**
+   * @param segments per-element segments of a scan, in classpath order
+   * @return the service files among them, in classpath order
+   */
+  static List<ClasspathEntry> serviceFiles(List<ClasspathEntry[]> segments) {
+    List<ClasspathEntry> l = new ArrayList<>();
+    for (ClasspathEntry[] segment : segments)
+      for (ClasspathEntry e : segment) {
+        String p = e.getPath();
+        if (p.startsWith(PREFIX) && p.length() > PREFIX.length() && p.indexOf('/', PREFIX.length()) < 0)
+          l.add(e);
+      }
+    return l;
+  }
+
+  private Map<String, List<Provider>> build() {
+    Map<String, List<Provider>> m = new LinkedHashMap<>();
+    Map<String, Set<String>> seen = new LinkedHashMap<>();
+    for (ClasspathEntry e : store.getServiceFiles()) {
+      String service = e.getPath().substring(PREFIX.length());
+      try (BufferedReader r = new BufferedReader(new InputStreamReader(store.newInputStream(e), UTF_8))) {
+        String line;
+        while ((line = r.readLine()) != null) {
+          int hash = line.indexOf('#');
+          String name = (hash >= 0 ? line.substring(0, hash) : line).trim();
+          if (!name.isEmpty() && seen.computeIfAbsent(service, k -> new HashSet<>()).add(name))
+            m.computeIfAbsent(service, k -> new ArrayList<>()).add(new Provider(service, name, e.getElementFile()));
+        }
+      } catch (IOException x) {
+        throw new UncheckedIOException("Cannot read %s".formatted(e.getURI()), x);
+      }
+    }
+    m.replaceAll((k, v) -> Collections.unmodifiableList(v));
+    return Collections.unmodifiableMap(m);
+  }
+
+  private void save(Map<String, List<Provider>> m) throws IOException {
+    if (file == null)
+      return;
+    for (List<Provider> l : m.values())
+      for (Provider p : l)
+        if (p.element() == null)
+          return; // Nothing to tell whether it changed
+    file.write(store.getElements(), PREFIX, out -> {
+      out.writeInt(m.size());
+      for (Map.Entry<String, List<Provider>> e : m.entrySet()) {
+        out.writeUTF(e.getKey());
+        out.writeInt(e.getValue().size());
+        for (Provider p : e.getValue()) {
+          out.writeUTF(p.className());
+          out.writeUTF(p.element().getPath());
+        }
+      }
+    });
+  }
+
+  /**
+   * @return the persisted providers, or null if there are none or any element has changed since
+   */
+  private Map<String, List<Provider>> read() {
+    return file.read(PREFIX, in -> {
+      Map<String, List<Provider>> m = new LinkedHashMap<>();
+      int services = in.readInt();
+      for (int i = 0; i < services; ++i) {
+        String service = in.readUTF();
+        int count = in.readInt();
+        List<Provider> l = new ArrayList<>(count);
+        for (int j = 0; j < count; ++j)
+          l.add(new Provider(service, in.readUTF(), new File(in.readUTF())));
+        m.put(service, Collections.unmodifiableList(l));
+      }
+      return Collections.unmodifiableMap(m);
+    });
+  }
+
+  /**
+   * A provider as {@link ServiceLoader#stream()} yields it
+   */
+  private static final class LazyProvider<S> implements ServiceLoader.Provider<S> {
+    private final Class<S> service;
+    private final String className;
+    private final ClassLoader loader;
+    private Class<? extends S> type;
+
+    LazyProvider(Class<S> service, String className, ClassLoader loader) {
+      this.service = service;
+      this.className = className;
+      this.loader = loader;
+    }
+
+    @Override
+    public synchronized Class<? extends S> type() {
+      if (type == null) {
+        Class<?> c;
+        try {
+          c = Class.forName(className, false, loader);
+        } catch (ClassNotFoundException | LinkageError e) {
+          throw new ServiceConfigurationError("%s: Provider %s not found".formatted(service.getName(), className), e);
+        }
+        if (!service.isAssignableFrom(c))
+          throw new ServiceConfigurationError(
+              "%s: Provider %s not a subtype".formatted(service.getName(), className));
+        type = c.asSubclass(service);
+      }
+      return type;
+    }
+
+    @Override
+    public S get() {
+      try {
+        return service.cast(type().getConstructor().newInstance());
+      } catch (InvocationTargetException e) {
+        throw new ServiceConfigurationError(
+            "%s: Provider %s could not be instantiated".formatted(service.getName(), className), e.getCause());
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        throw new ServiceConfigurationError(
+            "%s: Provider %s could not be instantiated".formatted(service.getName(), className), e);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the exploded-directory elements of a classpath filesystem.
+ *
+ * Every directory of every directory element is registered with the default filesystem's watcher. Events are drained
+ * whenever this service is polled: each change is applied to the store's index at once (so it takes effect without a
+ * rescan), then delivered as an event on the {@link ClasspathPath} directory it happened in, if that directory is
+ * registered with {@link Path#register(WatchService, WatchEvent.Kind...)}. As with the default filesystem, the context
+ * of an event is the name of the entry, relative to that directory.
+ *
+ * Jars are not watched.
+ */
+public class ClasspathWatchService implements WatchService {
+
+  private record Watched(File element, Path dir) {
+  }
+
+  private final ClasspathFileSystem fs;
+  private final ClasspathFileStore store;
+  private final WatchService delegate;
+  private final Map<WatchKey, Watched> watched = new ConcurrentHashMap<>();
+  private final Map<String, Key> keys = new ConcurrentHashMap<>();
+  private final LinkedBlockingDeque<Key> ready = new LinkedBlockingDeque<>();
+  private volatile boolean open = true;
+
+  ClasspathWatchService(ClasspathFileSystem fs, ClasspathFileStore store) throws IOException {
+    this.fs = fs;
+    this.store = store;
+    this.delegate = FileSystems.getDefault().newWatchService();
+    for (File element : store.getElements())
+      if (element.isDirectory())
+        registerTree(element, element.toPath());
+  }
+
+  /**
+   * @return files found under {@code dir}, which is now watched
+   */
+  private List<Path> registerTree(File element, Path dir) throws IOException {
+    List<Path> files = new ArrayList<>();
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+        watched.put(d.register(delegate, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), new Watched(element, d));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        files.add(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException exc) {
+        // Gone already, or unreadable. Nothing to index either way
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return files;
+  }
+
+  WatchKey register(ClasspathPath dir, WatchEvent.Kind<?>[] kinds) {
+    ensureOpen();
+    String d = ClasspathIndex.toPrefix(dir.toString());
+    Key k = keys.computeIfAbsent(d, x -> new Key(dir));
+    k.kinds.addAll(List.of(kinds));
+    return k;
+  }
+
+  private void ensureOpen() {
+    if (!open)
+      throw new ClosedWatchServiceException();
+  }
+
+  private static String relative(File element, Path p) {
+    return element.toPath().relativize(p).toString().replace(File.separatorChar, '/');
+  }
+
+  private void process(WatchKey k) {
+    Watched w = watched.get(k);
+    if (w == null)
+      return;
+    for (WatchEvent<?> ev : k.pollEvents()) {
+      try {
+        if (ev.kind() == OVERFLOW) {
+          store.refreshElement(w.element());
+          continue;
+        }
+        Path abs = w.dir().resolve((Path) ev.context());
+        if (ev.kind() == ENTRY_CREATE && Files.isDirectory(abs)) {
+          for (Path f : registerTree(w.element(), abs))
+            store.refresh(w.element(), relative(w.element(), f));
+        } else
+          store.refresh(w.element(), relative(w.element(), abs));
+        deliver(relative(w.element(), w.dir()), ev.kind(), ev.context().toString());
+      } catch (IOException e) {
+        // The next event for the path will try again
+      }
+    }
+    if (!k.reset())
+      watched.remove(k);
+  }
+
+  private void deliver(String dir, WatchEvent.Kind<?> kind, String name) {
+    Key key = keys.get(ClasspathIndex.toPrefix(dir));
+    if (key != null && key.kinds.contains(kind))
+      key.signal(new Event(kind, new ClasspathPath(fs, name)));
+  }
+
+  private void drain() {
+    for (WatchKey k; (k = delegate.poll()) != null;)
+      process(k);
+  }
+
+  @Override
+  public WatchKey poll() {
+    ensureOpen();
+    drain();
+    return ready.poll();
+  }
+
+  @Override
+  public WatchKey poll(long timeout, TimeUnit unit) throws InterruptedException {
+    ensureOpen();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (true) {
+      drain();
+      Key r = ready.poll();
+      if (r != null)
+        return r;
+      long left = deadline - System.nanoTime();
+      if (left <= 0)
+        return null;
+      WatchKey k = delegate.poll(left, TimeUnit.NANOSECONDS);
+      if (k != null)
+        process(k);
+    }
+  }
+
+  @Override
+  public WatchKey take() throws InterruptedException {
+    ensureOpen();
+    while (true) {
+      drain();
+      Key r = ready.poll();
+      if (r != null)
+        return r;
+      process(delegate.take());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    open = false;
+    keys.values().forEach(k -> k.valid = false);
+    delegate.close();
+  }
+
+  private static final class Event implements WatchEvent<Path> {
+    private final WatchEvent.Kind<?> kind;
+    private final Path context;
+
+    Event(WatchEvent.Kind<?> kind, Path context) {
+      this.kind = kind;
+      this.context = context;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Kind<Path> kind() {
+      return (Kind<Path>) kind;
+    }
+
+    @Override
+    public int count() {
+      return 1;
+    }
+
+    @Override
+    public Path context() {
+      return context;
+    }
+
+    @Override
+    public String toString() {
+      return "%s %s".formatted(kind, context);
+    }
+  }
+
+  private final class Key implements WatchKey {
+    private final ClasspathPath dir;
+    private final Set<WatchEvent.Kind<?>> kinds = ConcurrentHashMap.newKeySet();
+    private List<WatchEvent<?>> pending = new ArrayList<>();
+    private boolean signalled = false;
+    private volatile boolean valid = true;
+
+    Key(ClasspathPath dir) {
+      this.dir = dir;
+    }
+
+    synchronized void signal(WatchEvent<?> e) {
+      pending.add(e);
+      if (!signalled) {
+        signalled = true;
+        ready.add(this);
+      }
+    }
+
+    @Override
+    public boolean isValid() {
+      return valid && open;
+    }
+
+    @Override
+    public synchronized List<WatchEvent<?>> pollEvents() {
+      List<WatchEvent<?>> r = pending;
+      pending = new ArrayList<>();
+      return r;
+    }
+
+    @Override
+    public synchronized boolean reset() {
+      if (!isValid())
+        return false;
+      if (pending.isEmpty())
+        signalled = false;
+      else
+        ready.add(this);
+      return true;
+    }
+
+    @Override
+    public void cancel() {
+      valid = false;
+      keys.values().remove(this);
+    }
+
+    @Override
+    public Watchable watchable() {
+      return dir;
+    }
+  }
+
+}
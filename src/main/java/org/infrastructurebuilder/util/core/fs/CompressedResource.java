@@ -0,0 +1,123 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * The bytes of a jar entry exactly as they are stored, with what is needed to send them on without inflating them.
+ *
+ * For a DEFLATED entry the content is a raw deflate stream. That is not {@code Content-Encoding: deflate}, which RFC
+ * 9110 defines as the zlib format (a header and an Adler-32 of the content, which the jar does not have).
+ * {@link #transferGzipTo(WritableByteChannel, JarHandlePool)} frames it as gzip instead, for {@code Content-Encoding: gzip}, which
+ * only needs the CRC and size the jar already records.
+ *
+ * @param path           resource path
+ * @param element        the jar
+ * @param dataOffset     offset of the entry data in {@code element}
+ * @param method         {@link ZipCentralDirectory#STORED} or {@link ZipCentralDirectory#DEFLATED}
+ * @param crc            CRC-32 of the content
+ * @param compressedSize size of the stored bytes
+ * @param size           size of the content
+ */
+public record CompressedResource(String path, File element, long dataOffset, int method, long crc,
+    long compressedSize, long size) {
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+
+  public boolean isDeflated() {
+    return method == ZipCentralDirectory.DEFLATED;
+  }
+
+  /**
+   * @param handles pool to borrow the jar from, usually {@link ClasspathFileStore#getHandles()}
+   * @return a channel over the stored bytes, on the pooled jar.
+   *         {@link ClasspathByteChannel#transferTo(WritableByteChannel)} sends them without copying through the heap
+   * @throws IOException if the jar cannot be opened
+   */
+  public ClasspathByteChannel open(JarHandlePool handles) throws IOException {
+    JarHandlePool.Lease l = handles.acquire(element);
+    return new FileRegionByteChannel(l.channel(), dataOffset, compressedSize, l);
+  }
+
+  /**
+   * @return the 10 byte gzip member header for deflated content
+   */
+  public static ByteBuffer gzipHeader() {
+    ByteBuffer b = ByteBuffer.allocate(10).order(LITTLE_ENDIAN);
+    b.putShort((short) GZIP_MAGIC).put((byte) ZipCentralDirectory.DEFLATED).put((byte) 0).putInt(0).put((byte) 0)
+        .put((byte) 0xFF); // Unknown OS
+    return b.flip();
+  }
+
+  /**
+   * @return the 8 byte gzip trailer for this content
+   */
+  public ByteBuffer gzipTrailer() {
+    return ByteBuffer.allocate(8).order(LITTLE_ENDIAN).putInt((int) crc).putInt((int) size).flip();
+  }
+
+  /**
+   * Write this entry as a gzip stream, reading from a pooled jar
+   *
+   * @param target  where to write
+   * @param handles pool to borrow the jar from, usually {@link ClasspathFileStore#getHandles()}
+   * @return bytes written
+   * @throws IOException                   on failure to read or write, or if {@code target} stops taking bytes
+   * @throws IllegalArgumentException      if {@code target} is in non-blocking mode
+   * @throws UnsupportedOperationException if the entry is not DEFLATED
+   */
+  public long transferGzipTo(WritableByteChannel target, JarHandlePool handles) throws IOException {
+    if (!isDeflated())
+      throw new UnsupportedOperationException("%s is not deflated".formatted(path));
+    // A partial write would leave the trailer after a truncated body
+    if (target instanceof SelectableChannel sc && !sc.isBlocking())
+      throw new IllegalArgumentException("Cannot write gzip of %s to a non-blocking channel".formatted(path));
+    Objects.requireNonNull(handles);
+    long n = writeFully(target, gzipHeader());
+    try (ClasspathByteChannel ch = open(handles)) {
+      while (ch.position() < compressedSize) {
+        long sent = ch.transferTo(target);
+        if (sent <= 0)
+          throw new IOException(
+              "Writing %s made no progress at %d of %d".formatted(path, ch.position(), compressedSize));
+        n += sent;
+      }
+    }
+    return n + writeFully(target, gzipTrailer());
+  }
+
+  private long writeFully(WritableByteChannel target, ByteBuffer b) throws IOException {
+    long n = 0;
+    while (b.hasRemaining()) {
+      int w = target.write(b);
+      if (w <= 0)
+        throw new IOException("Writing %s made no progress".formatted(path));
+      n += w;
+    }
+    return n;
+  }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+/**
+ * Content digests offered by {@link ClasspathDigests}
+ */
+public enum DigestAlgorithm {
+  SHA_256("SHA-256", 32),
+  SHA_512("SHA-512", 64),
+  /**
+   * Cheap, for change detection and dedupe rather than integrity
+   */
+  CRC32C(null, 4),
+  /**
+   * What jars record for every entry, so free for jar entries
+   */
+  CRC32(null, 4);
+
+  private final String jcaName;
+  private final int length;
+
+  private DigestAlgorithm(String jcaName, int length) {
+    this.jcaName = jcaName;
+    this.length = length;
+  }
+
+  /**
+   * @return the {@link java.security.MessageDigest} name, or null for checksums
+   */
+  public String getJcaName() {
+    return jcaName;
+  }
+
+  /**
+   * @return length of the digest in bytes
+   */
+  public int getLength() {
+    return length;
+  }
+
+}
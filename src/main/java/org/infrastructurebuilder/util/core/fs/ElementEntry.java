@@ -0,0 +1,146 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.Objects;
+
+/**
+ * A {@link ClasspathEntry} found by the {@link LeanScanner}: either a file below a directory element or an entry of a
+ * jar's central directory, possibly that of a jar nested in another.
+ */
+public final class ElementEntry implements ClasspathEntry {
+  private final File element;
+  private final String path;
+  private final String rel;
+  private final long length;
+  private final ZipCentralDirectory.Entry zipEntry;
+
+  public static ElementEntry ofFile(File dir, String path, long length) {
+    return ofFile(dir, path, path, length);
+  }
+
+  public static ElementEntry ofFile(File dir, String path, String rel, long length) {
+    return new ElementEntry(dir, path, rel, length, null);
+  }
+
+  public static ElementEntry ofJar(File jar, ZipCentralDirectory.Entry e) {
+    return ofJar(jar, e.name(), e);
+  }
+
+  public static ElementEntry ofJar(File jar, String path, ZipCentralDirectory.Entry e) {
+    return new ElementEntry(jar, path, e.name(), e.size(), e);
+  }
+
+  /**
+   * An entry of a jar nested (STORED) in {@code outer}. It is read from {@code outer} at the offsets of {@code e}, which
+   * must come from {@link ZipCentralDirectory#readNested(java.nio.file.Path, String)}
+   *
+   * @param outer    the outer jar
+   * @param innerJar path of the nested jar in {@code outer}
+   * @param e        entry of the nested jar
+   * @return the entry, relative to {@code outer} as {@code innerJar!/name}
+   */
+  public static ElementEntry ofNested(File outer, String innerJar, ZipCentralDirectory.Entry e) {
+    return ofJar(outer, e.name(), new ZipCentralDirectory.Entry(innerJar + "!/" + e.name(), e.method(), e.crc(),
+        e.compressedSize(), e.size(), e.localHeaderOffset()));
+  }
+
+  private ElementEntry(File element, String path, String rel, long length, ZipCentralDirectory.Entry zipEntry) {
+    this.element = Objects.requireNonNull(element);
+    this.path = Objects.requireNonNull(path);
+    this.rel = Objects.requireNonNull(rel);
+    this.length = length;
+    this.zipEntry = zipEntry;
+  }
+
+  public boolean isJarEntry() {
+    return this.zipEntry != null;
+  }
+
+  /**
+   * @return the central directory record for jar entries, null for directory entries
+   */
+  public ZipCentralDirectory.Entry getZipEntry() {
+    return this.zipEntry;
+  }
+
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  @Override
+  public String getPathRelativeToElement() {
+    return rel;
+  }
+
+  @Override
+  public File getElementFile() {
+    return element;
+  }
+
+  @Override
+  public long getLength() {
+    return length;
+  }
+
+  @Override
+  public URI getURI() {
+    if (!isJarEntry())
+      return element.toPath().resolve(rel).toUri();
+    try {
+      return new URI("jar:" + element.toURI() + "!/" + new URI(null, null, rel, null).getRawPath());
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Cannot build a URI for %s in %s".formatted(rel, element), e);
+    }
+  }
+
+  /**
+   * Opens jar entries on a jar of their own. Reads through {@link ClasspathFileStore#newInputStream(String)}, or
+   * {@link #open(JarHandlePool)}, borrow it from the store's pool instead
+   */
+  @Override
+  public InputStream open() throws IOException {
+    if (isJarEntry())
+      return ZipCentralDirectory.open(element.toPath(), zipEntry);
+    return Files.newInputStream(element.toPath().resolve(rel));
+  }
+
+  /**
+   * @param handles pool to borrow the jar from, usually {@link ClasspathFileStore#getHandles()}
+   * @return a fresh stream of the content
+   * @throws IOException if the resource cannot be opened
+   */
+  public InputStream open(JarHandlePool handles) throws IOException {
+    if (isJarEntry())
+      return handles.open(element, zipEntry);
+    return Files.newInputStream(element.toPath().resolve(rel));
+  }
+
+  @Override
+  public String toString() {
+    return getURI().toString();
+  }
+
+}
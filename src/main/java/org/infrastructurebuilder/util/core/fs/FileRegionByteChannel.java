@@ -0,0 +1,170 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+
+/**
+ * A read-only window onto a region of a file. Used for resources that live in exploded directories and for STORED jar
+ * entries, where the bytes on disk are the resource bytes.
+ *
+ * {@link #transferTo(WritableByteChannel)} delegates to {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * so that the kernel can move the bytes (sendfile) without them passing through the heap.
+ */
+public class FileRegionByteChannel implements ClasspathByteChannel {
+
+  private final FileChannel ch;
+  private final Closeable release;
+  private final long offset;
+  private final long length;
+  private long position = 0L;
+  private volatile boolean open = true;
+
+  /**
+   * @param ch     open channel. Ownership passes to this instance, closing it closes {@code ch}
+   * @param offset start of the region within {@code ch}
+   * @param length length of the region
+   */
+  public FileRegionByteChannel(FileChannel ch, long offset, long length) {
+    this(ch, offset, length, ch);
+  }
+
+  /**
+   * A window onto a channel that may be shared. Only positional reads and transfers are made on {@code ch}
+   *
+   * @param ch      open channel
+   * @param offset  start of the region within {@code ch}
+   * @param length  length of the region
+   * @param release run once, in place of closing {@code ch}, when this instance is closed
+   */
+  public FileRegionByteChannel(FileChannel ch, long offset, long length, Closeable release) {
+    this.ch = Objects.requireNonNull(ch);
+    this.release = Objects.requireNonNull(release);
+    if (offset < 0 || length < 0)
+      throw new IllegalArgumentException("Bad region %d/%d".formatted(offset, length));
+    this.offset = offset;
+    this.length = length;
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (!isOpen())
+      throw new ClosedChannelException();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open && ch.isOpen();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!open)
+      return;
+    open = false;
+    release.close();
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    ensureOpen();
+    long remaining = this.length - this.position;
+    if (remaining <= 0)
+      return -1;
+    int read;
+    if (dst.remaining() > remaining) {
+      ByteBuffer slice = dst.slice().limit((int) remaining);
+      read = ch.read(slice, this.offset + this.position);
+      if (read > 0)
+        dst.position(dst.position() + read);
+    } else {
+      read = ch.read(dst, this.offset + this.position);
+    }
+    if (read > 0)
+      this.position += read;
+    return read;
+  }
+
+  @Override
+  public int read(ByteBuffer dst, long position) throws IOException {
+    ensureOpen();
+    if (position < 0)
+      throw new IllegalArgumentException("Illegal position %d".formatted(position));
+    long remaining = this.length - position;
+    if (remaining <= 0)
+      return -1;
+    // FileChannel positional reads are safe for concurrent use and leave the file pointer alone
+    if (dst.remaining() <= remaining)
+      return ch.read(dst, this.offset + position);
+    ByteBuffer slice = dst.slice().limit((int) remaining);
+    int read = ch.read(slice, this.offset + position);
+    if (read > 0)
+      dst.position(dst.position() + read);
+    return read;
+  }
+
+  @Override
+  public long transferTo(WritableByteChannel target) throws IOException {
+    ensureOpen();
+    long total = 0L;
+    while (this.position < this.length) {
+      long sent = ch.transferTo(this.offset + this.position, this.length - this.position, target);
+      if (sent <= 0)
+        break;
+      this.position += sent;
+      total += sent;
+    }
+    return total;
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    throw new UnsupportedOperationException("No modification allowed");
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size) throws IOException {
+    throw new UnsupportedOperationException("No modification allowed");
+  }
+
+  @Override
+  public long position() throws IOException {
+    return this.position;
+  }
+
+  @Override
+  public SeekableByteChannel position(long newPosition) throws IOException {
+    ensureOpen();
+    if (newPosition < 0)
+      throw new IllegalArgumentException("Illegal new position %d".formatted(newPosition));
+    this.position = newPosition;
+    return this;
+  }
+
+  @Override
+  public long size() throws IOException {
+    return this.length;
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A file in {@code indexDirectory} that persists something derived from a classpath: the service providers, the class
+ * metadata, the digests.
+ *
+ * Its name hashes the configuration and the classpath, which its header repeats in full after a magic number and a
+ * version, so that it is never read for another configuration. It can carry a fingerprint of every element, taken
+ * when it was written, and is then only read while every fingerprint still matches. It is replaced atomically, and a
+ * missing, foreign, stale or damaged file reads as nothing, as it is only a cache.
+ */
+final class IndexFile {
+
+  interface Writer {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  interface Reader<T> {
+    T read(DataInputStream in) throws IOException;
+  }
+
+  private final Path file;
+  private final int magic;
+  private final int version;
+  private final String key;
+
+  private IndexFile(Path file, int magic, int version, String key) {
+    this.file = file;
+    this.magic = magic;
+    this.version = version;
+    this.key = key;
+  }
+
+  /**
+   * @param config  the configuration
+   * @param name    what the file holds, the start of its name
+   * @param magic   identifies what the file holds
+   * @param version of the format of what the file holds
+   * @return the file, if {@code indexDirectory} is configured
+   */
+  static Optional<IndexFile> of(ClasspathConfig config, String name, int magic, int version) {
+    // Filters and shadowing change what is found, so they key the file as much as the classpath does
+    Object ocp = config.get("overrideClasspath");
+    String key = config.settingsKey()
+        + (ocp == null ? System.getProperty("java.class.path", "") : String.valueOf(ocp));
+    return config.getString("indexDirectory").map(
+        d -> new IndexFile(Path.of(d).resolve("%s-%08x.bin".formatted(name, key.hashCode())), magic, version, key));
+  }
+
+  /**
+   * @param elements elements to fingerprint, or an empty list
+   * @param dir      the part of each element that matters, "" for all of it
+   * @param body     writes what follows the header
+   * @throws IOException on failure to write
+   */
+  void write(List<File> elements, String dir, Writer body) throws IOException {
+    Files.createDirectories(file.getParent());
+    Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeUTF(key);
+        out.writeInt(elements.size());
+        for (File e : elements) {
+          out.writeUTF(e.getPath());
+          out.writeUTF(fingerprint(e, dir));
+        }
+        body.write(out);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * @param dir  the part of each element that matters, as when written
+   * @param body reads what follows the header
+   * @return what {@code body} read, or null if there is no file, it is for another configuration or version, an
+   *         element has changed since it was written, or it is damaged
+   */
+  <T> T read(String dir, Reader<T> body) {
+    if (!Files.isRegularFile(file))
+      return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != magic || in.readInt() != version || !in.readUTF().equals(key))
+        return null;
+      int n = in.readInt();
+      for (int i = 0; i < n; ++i) {
+        File e = new File(in.readUTF());
+        if (!in.readUTF().equals(fingerprint(e, dir)))
+          return null;
+      }
+      return body.read(in);
+    } catch (IOException | RuntimeException e) {
+      return null; // A damaged cache is only a cold cache
+    }
+  }
+
+  /**
+   * @param element a classpath element
+   * @param dir     the part of it that matters, "" for all of it
+   * @return what changes with the content of {@code dir} in {@code element}: the size and modification time of a jar,
+   *         or of every file under {@code dir} of a directory
+   */
+  static String fingerprint(File element, String dir) {
+    String p = element.getPath();
+    int bang = p.indexOf("!/");
+    File f = bang > 0 ? new File(p.substring(0, bang)) : element;
+    if (!f.isDirectory())
+      return "%d#%d".formatted(f.length(), f.lastModified());
+    Path root = f.toPath();
+    Path start = dir.isEmpty() ? root : root.resolve(dir);
+    if (!Files.isDirectory(start))
+      return "-";
+    List<String> files = new ArrayList<>();
+    try (var walk = Files.walk(start)) {
+      walk.forEach(q -> {
+        File g = q.toFile();
+        if (g.isFile())
+          files.add("%s#%d#%d".formatted(root.relativize(q), g.length(), g.lastModified()));
+      });
+    } catch (IOException | UncheckedIOException e) {
+      return "?" + System.nanoTime(); // Matches nothing
+    }
+    Collections.sort(files);
+    return "%d:%08x".formatted(files.size(), String.join("/", files).hashCode());
+  }
+
+}
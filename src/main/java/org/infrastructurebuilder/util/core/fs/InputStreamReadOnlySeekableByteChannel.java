@@ -21,8 +21,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.base.Supplier;
 
@@ -30,17 +33,41 @@ import io.github.classgraph.Resource;
 
 /**
  * A class that fakes a SeekableByteChannel by wrapping an easy-to-reopen element
+ *
+ * {@link #transferTo(WritableByteChannel)} streams through buffers borrowed from the shared {@link ByteBufferPool}.
+ *
+ * When given a (shared) {@link SeekPointIndex} slot, the first complete sequential pass builds the index and later
+ * seeks and positional reads resume from the nearest checkpoint instead of starting over. Positional reads build the
+ * index themselves on first use, with or without a slot, since each would otherwise inflate up to its position.
+ *
+ * With a read-ahead depth, once reads are seen to be sequential the rest of the content is inflated ahead of the
+ * reader on a background thread (see {@link ReadAheadInputStream}). Seeking back or closing cancels it. Seeking
+ * forward keeps it, since the bytes in between have to be inflated anyway.
  */
-public class InputStreamReadOnlySeekableByteChannel implements SeekableByteChannel {
+public class InputStreamReadOnlySeekableByteChannel implements ClasspathByteChannel {
+
+  // Relative reads in a row before reading ahead
+  private static final int SEQUENTIAL_READS = 2;
 
   private final Supplier<InputStream> res;
   private boolean open = true;
+  private transient InputStream stream = null;
   private transient ReadableByteChannel ins = null;
   private long position = 0L;
   private long current = 0L;
   private final int bufferSize;
   private final ByteBuffer buf;
   private final long length;
+  private final AtomicReference<SeekPointIndex> seekIndex;
+  private final int seekInterval;
+  private SeekPointIndex.Builder indexBuilder = null;
+  // Built by the first positional read when there is no index yet, and kept while this channel is open
+  private final Object preadLock = new Object();
+  private volatile SeekPointIndex preadIndex = null;
+  private volatile boolean preadIndexTried = false;
+  private final int readAhead;
+  private int sequential = 0;
+  private boolean readingAhead = false;
 
   /**
    * Open or creates a file, returning a seekable byte channel
@@ -52,26 +79,112 @@ public class InputStreamReadOnlySeekableByteChannel implements SeekableByteChann
    */
   public InputStreamReadOnlySeekableByteChannel(final Supplier<InputStream> resource, long len, int bufferSize)
       throws IOException
+  {
+    this(resource, len, bufferSize, null, 0, 0);
+  }
+
+  public InputStreamReadOnlySeekableByteChannel(final Supplier<InputStream> resource, long len, int bufferSize,
+      AtomicReference<SeekPointIndex> seekIndex, int seekInterval) throws IOException
+  {
+    this(resource, len, bufferSize, seekIndex, seekInterval, 0);
+  }
+
+  /**
+   * @param resource     supplies a fresh stream of the content, from the first byte, on every call
+   * @param len          length of the content
+   * @param bufferSize   size of the skip buffer
+   * @param seekIndex    slot shared by every channel on the same content, or null for no seek index
+   * @param seekInterval distance between checkpoints when building the seek index
+   * @param readAhead    blocks to read ahead of sequential reads, or 0 for none
+   * @throws IOException if an I/O error occurs
+   */
+  public InputStreamReadOnlySeekableByteChannel(final Supplier<InputStream> resource, long len, int bufferSize,
+      AtomicReference<SeekPointIndex> seekIndex, int seekInterval, int readAhead) throws IOException
   {
     this.res = resource;
     this.bufferSize = bufferSize;
     this.length = len;
     this.buf = ByteBuffer.allocate(bufferSize);
+    this.seekIndex = seekIndex;
+    this.seekInterval = seekInterval;
+    this.readAhead = Math.max(0, readAhead);
     reset();
   }
 
+  private SeekPointIndex getSeekIndex() {
+    return this.seekIndex == null ? null : this.seekIndex.get();
+  }
+
   private void reset() throws IOException {
     if (isOpen()) {
       if (this.ins != null)
         this.ins.close(); // Dunno if it closes underlying inputstream
-      this.ins = Channels.newChannel(res.get());
+      use(res.get());
       this.current = 0L;
+      if (this.indexBuilder != null)
+        this.indexBuilder.abandon();
+      this.indexBuilder = (this.seekIndex != null && getSeekIndex() == null)
+          ? SeekPointIndex.builder(this.length, this.seekInterval)
+          : null;
+    }
+  }
+
+  private void resumeFrom(SeekPointIndex idx, long p) throws IOException {
+    if (this.ins != null)
+      this.ins.close();
+    if (this.indexBuilder != null)
+      this.indexBuilder.abandon();
+    this.indexBuilder = null;
+    use(idx.openStream(p));
+    this.current = idx.checkpointBefore(p);
+  }
+
+  private void use(InputStream in) {
+    this.stream = in;
+    this.ins = Channels.newChannel(in);
+    this.readingAhead = false;
+    this.sequential = 0;
+  }
+
+  /**
+   * Hand the rest of the stream to a background reader, if reading ahead and there is more than a block left
+   */
+  private void readAhead() {
+    if (this.readAhead == 0 || this.readingAhead
+        || this.length - this.current <= ReadAheadInputStream.DEFAULT_BLOCK_SIZE)
+      return;
+    // The channel adapter holds nothing back, so it can be dropped for one over the read-ahead
+    this.ins = Channels.newChannel(
+        new ReadAheadInputStream(this.stream, this.readAhead, ReadAheadInputStream.DEFAULT_BLOCK_SIZE));
+    this.readingAhead = true;
+  }
+
+  /**
+   * Account for bytes that just came off the stream, feeding the seek index builder if one is running
+   */
+  private void consumed(ByteBuffer chunk) {
+    this.current += chunk.remaining();
+    if (this.indexBuilder != null) {
+      this.indexBuilder.update(chunk);
+      if (this.current >= this.length) {
+        this.indexBuilder.finish().ifPresent(idx -> {
+          if (this.seekIndex instanceof SeekIndexCache.Slot s)
+            s.publish(idx); // Charged to the store's budget
+          else
+            this.seekIndex.compareAndSet(null, idx);
+        });
+        this.indexBuilder = null;
+      }
     }
   }
 
   // Slow AF
   private void advanceTo(long p) throws IOException {
-    if (p == 0 && this.current != 0) {
+    SeekPointIndex idx = getSeekIndex();
+    if (idx != null && (p < this.current || p - this.current > idx.getInterval())) {
+      resumeFrom(idx, p);
+      skipRead(p - this.current);
+    } else if (p == 0 && this.current != 0) {
       reset();
     } else if (p >= this.current) {
       skipRead(p - current);
@@ -84,24 +197,22 @@ public class InputStreamReadOnlySeekableByteChannel implements SeekableByteChann
   private void skipRead(long p) throws IOException {
     long count = p;
     while (count > 0) {
-      for (int i = 0; i < (p / this.bufferSize); ++i) {
-        int read = this.ins.read(buf);
-        if (read == -1)
-          throw new IOException("Error.  Ran out of bytes.");
-        this.current += read;
-        count -= read;
-        buf.clear();
-      }
-      ByteBuffer one = ByteBuffer.allocate((int) count);
-      int read = this.ins.read(one);
+      buf.clear();
+      if (count < buf.capacity())
+        buf.limit((int) count);
+      int read = this.ins.read(buf);
       if (read == -1)
         throw new IOException("Error. Ran out of bytes.");
-      this.current += read;
+      consumed(buf.flip());
       count -= read;
-      one.clear();
     }
   }
 
+  private void ensureOpen() throws ClosedChannelException {
+    if (!isOpen())
+      throw new ClosedChannelException();
+  }
+
   @Override
   public boolean isOpen() {
     return this.open;
@@ -113,9 +224,15 @@ public class InputStreamReadOnlySeekableByteChannel implements SeekableByteChann
       if (!isOpen())
         return;
     } finally {
+      this.open = false;
+      if (this.indexBuilder != null)
+        this.indexBuilder.abandon();
+      this.indexBuilder = null;
+      this.preadIndex = null;
       if (this.ins != null)
         this.ins.close();
       this.ins = null;
+      this.stream = null;
     }
   }
 
@@ -136,13 +253,119 @@ public class InputStreamReadOnlySeekableByteChannel implements SeekableByteChann
 
   @Override
   public int read(ByteBuffer dst) throws IOException {
-    return 0;
+    ensureOpen();
+    if (this.current >= this.length)
+      return -1;
+    if (++this.sequential >= SEQUENTIAL_READS)
+      readAhead();
+    int start = dst.position();
+    int read = this.ins.read(dst);
+    if (read > 0) {
+      consumed(dst.duplicate().limit(dst.position()).position(start));
+      this.position = this.current;
+    }
+    return read;
+  }
+
+  /**
+   * Positional read. This decodes only the checkpoint segments of the seek index that cover the request, so callers
+   * never contend on the state of this channel. The first positional read builds the index if there is none yet, in
+   * one pass over the content. Should that fail, each call opens its own stream and skips forward to {@code pos}.
+   */
+  @Override
+  public int read(ByteBuffer dst, long pos) throws IOException {
+    ensureOpen();
+    if (pos < 0)
+      throw new IllegalArgumentException("Illegal position %d".formatted(pos));
+    if (pos >= this.length)
+      return -1;
+    SeekPointIndex idx = preadIndex();
+    if (idx != null)
+      return idx.read(dst, pos);
+    int wanted = (int) Math.min(dst.remaining(), this.length - pos);
+    try (InputStream in = res.get()) {
+      in.skipNBytes(pos);
+      ReadableByteChannel rc = Channels.newChannel(in);
+      ByteBuffer window = dst.slice().limit(wanted);
+      while (window.hasRemaining() && rc.read(window) != -1)
+        ;
+      int read = window.position();
+      dst.position(dst.position() + read);
+      return read == 0 && wanted > 0 ? -1 : read;
+    }
+  }
+
+  /**
+   * @return the seek index, built now from a stream of its own if there is none yet, or null if it cannot be built
+   */
+  private SeekPointIndex preadIndex() throws IOException {
+    SeekPointIndex idx = getSeekIndex();
+    if (idx != null || preadIndexTried)
+      return idx != null ? idx : preadIndex;
+    synchronized (preadLock) {
+      idx = getSeekIndex();
+      if (idx != null || preadIndexTried)
+        return idx != null ? idx : preadIndex;
+      int interval = this.seekInterval >= SeekPointIndex.WINDOW_SIZE ? this.seekInterval
+          : ClasspathFileStore.DEFAULT_SEEK_INDEX_INTERVAL;
+      SeekPointIndex.Builder b = SeekPointIndex.builder(this.length, interval);
+      ByteBufferPool pool = ByteBufferPool.shared();
+      ByteBuffer chunk = pool.acquire();
+      try (ReadableByteChannel in = Channels.newChannel(res.get())) {
+        while (!b.isComplete() && in.read(chunk.clear()) != -1)
+          b.update(chunk.flip());
+      } finally {
+        pool.release(chunk);
+      }
+      idx = b.finish().orElse(null);
+      if (idx != null && this.seekIndex instanceof SeekIndexCache.Slot s)
+        s.publish(idx); // Charged to the store's budget, and shared with every channel on the same content
+      else if (idx != null && this.seekIndex != null)
+        this.seekIndex.compareAndSet(null, idx);
+      this.preadIndex = idx;
+      this.preadIndexTried = true;
+      return idx;
+    }
+  }
+
+  @Override
+  public long transferTo(WritableByteChannel target) throws IOException {
+    ensureOpen();
+    final long start = this.position;
+    long total = 0L;
+    readAhead();
+    ByteBufferPool pool = ByteBufferPool.shared();
+    ByteBuffer b = pool.acquire();
+    try {
+      boolean stalled = false;
+      while (!stalled && this.ins.read(b.clear()) != -1) {
+        b.flip();
+        consumed(b.duplicate());
+        while (b.hasRemaining()) {
+          int written = target.write(b);
+          if (written <= 0) {
+            stalled = true;
+            break;
+          }
+          total += written;
+        }
+      }
+    } finally {
+      pool.release(b);
+    }
+    this.position = start + total;
+    // A non-blocking target stalled after we pulled bytes off the stream, so rewind to what was actually written
+    if (this.current != this.position)
+      advanceTo(this.position);
+    return total;
   }
 
   @Override
   public SeekableByteChannel position(long newPosition) throws IOException {
     if (newPosition < 0 || newPosition > size())
       throw new IllegalArgumentException("Illegal new position %d".formatted(newPosition));
+    if (newPosition != this.current)
+      this.sequential = 0;
     this.position = newPosition;
     advanceTo(this.position);
     return this;
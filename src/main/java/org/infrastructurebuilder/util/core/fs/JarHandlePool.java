@@ -0,0 +1,365 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+/**
+ * Open jars, shared between readers, and raw {@link Inflater}s to read them with.
+ *
+ * One {@link FileChannel} per jar serves every reader at once, since they only make positional reads. Idle channels
+ * are kept in least recently used order and closed beyond {@code maxOpen}. Channels in use are never closed under
+ * their readers, so while more than {@code maxOpen} jars are being read at once the cap is exceeded, and it is
+ * restored as they are released.
+ *
+ * A reader interrupted during a read closes the shared channel. Other readers of the jar then fail, and the next to
+ * borrow it opens it again.
+ */
+public final class JarHandlePool {
+  public static final int DEFAULT_MAX_OPEN = 64;
+  public static final int DEFAULT_MAX_INFLATERS = 32;
+
+  private static final class Handle {
+    private final File jar;
+    private final FileChannel ch;
+    private int leases = 0;
+    private boolean retired = false;
+
+    Handle(File jar, FileChannel ch) {
+      this.jar = jar;
+      this.ch = ch;
+    }
+  }
+
+  /**
+   * A borrowed channel. Close the lease, never the channel
+   */
+  public final class Lease implements Closeable {
+    private final Handle h;
+    private boolean closed = false;
+
+    private Lease(Handle h) {
+      this.h = h;
+    }
+
+    public File getJar() {
+      return h.jar;
+    }
+
+    public FileChannel channel() {
+      return h.ch;
+    }
+
+    @Override
+    public void close() throws IOException {
+      List<FileChannel> closing;
+      synchronized (JarHandlePool.this) {
+        if (closed)
+          return;
+        closed = true;
+        closing = unlease(h);
+      }
+      closeAll(closing);
+    }
+  }
+
+  private final LinkedHashMap<File, Handle> open = new LinkedHashMap<>(16, 0.75f, true);
+  private final int maxOpen;
+  private final ConcurrentLinkedDeque<Inflater> inflaters = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger pooledInflaters = new AtomicInteger();
+  private final int maxInflaters;
+  private long opens = 0L;
+  private long hits = 0L;
+  private long evictions = 0L;
+  private int leased = 0;
+  private int peak = 0;
+  private final AtomicLong inflatersCreated = new AtomicLong();
+  private final AtomicLong inflatersReused = new AtomicLong();
+
+  /**
+   * @param maxOpen      idle jars to keep open
+   * @param maxInflaters idle inflaters to keep
+   */
+  public JarHandlePool(int maxOpen, int maxInflaters) {
+    if (maxOpen < 0 || maxInflaters < 0)
+      throw new IllegalArgumentException("Bad pool sizing %d/%d".formatted(maxOpen, maxInflaters));
+    this.maxOpen = maxOpen;
+    this.maxInflaters = maxInflaters;
+  }
+
+  /**
+   * @param jar a jar file
+   * @return a lease on the open channel for {@code jar}, opening it if need be
+   * @throws IOException if {@code jar} cannot be opened
+   */
+  public Lease acquire(File jar) throws IOException {
+    Objects.requireNonNull(jar);
+    synchronized (this) {
+      Handle h = open.get(jar);
+      if (h != null && h.ch.isOpen()) {
+        hits++;
+        return lease(h);
+      }
+      if (h != null)
+        retire(h);
+    }
+    // Opened outside the lock. Should another thread have opened it meanwhile, theirs is used
+    FileChannel ch = FileChannel.open(jar.toPath(), READ);
+    List<FileChannel> closing;
+    Lease l;
+    synchronized (this) {
+      Handle h = open.get(jar);
+      if (h != null && h.ch.isOpen()) {
+        hits++;
+        closing = new ArrayList<>(List.of(ch));
+      } else {
+        if (h != null)
+          retire(h);
+        h = new Handle(jar, ch);
+        open.put(jar, h);
+        opens++;
+        closing = new ArrayList<>();
+      }
+      l = lease(h);
+      closing.addAll(trim());
+    }
+    closeAll(closing);
+    return l;
+  }
+
+  /**
+   * @param jar a jar file
+   * @param e   an entry of {@code jar}
+   * @return a channel over the stored bytes of {@code e}. Closing it returns the jar to the pool
+   * @throws IOException if the jar cannot be read
+   */
+  public ClasspathByteChannel region(File jar, ZipCentralDirectory.Entry e) throws IOException {
+    Lease l = acquire(jar);
+    try {
+      return new FileRegionByteChannel(l.channel(), e.dataOffset(l.channel()), e.compressedSize(), l);
+    } catch (IOException | RuntimeException ex) {
+      l.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * @param jar a jar file
+   * @param e   an entry of {@code jar}
+   * @return a stream of the (inflated) content of {@code e}. Closing it returns the jar and the inflater to the pool
+   * @throws IOException if the entry cannot be opened
+   */
+  public InputStream open(File jar, ZipCentralDirectory.Entry e) throws IOException {
+    Lease l = acquire(jar);
+    if (e.isStored())
+      return ZipCentralDirectory.open(l.channel(), e, null, l);
+    Inflater inf = inflater();
+    return ZipCentralDirectory.open(l.channel(), e, inf, () -> {
+      release(inf);
+      l.close();
+    });
+  }
+
+  /**
+   * @return a raw (no zlib header) inflater. Hand it back with {@link #release(Inflater)}
+   */
+  public Inflater inflater() {
+    Inflater inf = inflaters.pollFirst();
+    if (inf == null) {
+      inflatersCreated.incrementAndGet();
+      return new Inflater(true);
+    }
+    pooledInflaters.decrementAndGet();
+    inflatersReused.incrementAndGet();
+    return inf;
+  }
+
+  /**
+   * Return an inflater obtained from {@link #inflater()}. It is reset, or ended if the pool is full
+   *
+   * @param inf inflater to return (may be null)
+   */
+  public void release(Inflater inf) {
+    if (inf == null)
+      return;
+    if (pooledInflaters.incrementAndGet() <= maxInflaters) {
+      inf.reset();
+      inflaters.offerFirst(inf);
+    } else {
+      pooledInflaters.decrementAndGet();
+      inf.end();
+    }
+  }
+
+  /**
+   * Stop handing out the current channel for {@code jar}, after it changed. It is closed once its readers are done
+   *
+   * @param jar a jar file
+   */
+  public void invalidate(File jar) {
+    FileChannel closing = null;
+    synchronized (this) {
+      Handle h = open.remove(jar);
+      if (h != null) {
+        h.retired = true;
+        if (h.leases == 0)
+          closing = h.ch;
+      }
+    }
+    if (closing != null)
+      closeAll(List.of(closing));
+  }
+
+  /**
+   * Close every idle channel and inflater. Channels in use are closed when they are released
+   */
+  public void clear() {
+    List<FileChannel> closing = new ArrayList<>();
+    synchronized (this) {
+      for (Handle h : open.values()) {
+        h.retired = true;
+        if (h.leases == 0)
+          closing.add(h.ch);
+      }
+      open.clear();
+    }
+    closeAll(closing);
+    for (Inflater inf; (inf = inflaters.pollFirst()) != null;) {
+      pooledInflaters.decrementAndGet();
+      inf.end();
+    }
+  }
+
+  public int getMaxOpen() {
+    return this.maxOpen;
+  }
+
+  /**
+   * @return jars open now, in use or idle
+   */
+  public synchronized int getOpen() {
+    return open.size();
+  }
+
+  /**
+   * @return leases not yet closed
+   */
+  public synchronized int getLeased() {
+    return this.leased;
+  }
+
+  /**
+   * @return most jars open at once
+   */
+  public synchronized int getPeakOpen() {
+    return this.peak;
+  }
+
+  /**
+   * @return times a jar had to be opened
+   */
+  public synchronized long getOpens() {
+    return this.opens;
+  }
+
+  /**
+   * @return times an open jar was borrowed
+   */
+  public synchronized long getHits() {
+    return this.hits;
+  }
+
+  /**
+   * @return idle jars closed to stay within {@link #getMaxOpen()}
+   */
+  public synchronized long getEvictions() {
+    return this.evictions;
+  }
+
+  public long getInflatersCreated() {
+    return inflatersCreated.get();
+  }
+
+  public long getInflatersReused() {
+    return inflatersReused.get();
+  }
+
+  private Lease lease(Handle h) {
+    h.leases++;
+    leased++;
+    peak = Math.max(peak, open.size());
+    return new Lease(h);
+  }
+
+  private List<FileChannel> unlease(Handle h) {
+    h.leases--;
+    leased--;
+    if (h.retired)
+      return h.leases == 0 ? List.of(h.ch) : List.of();
+    return trim();
+  }
+
+  private void retire(Handle h) {
+    open.remove(h.jar);
+    h.retired = true;
+    // Already closed, or closed by its last reader
+  }
+
+  /**
+   * @return idle channels, least recently used first, to close to get back within the cap
+   */
+  private List<FileChannel> trim() {
+    List<FileChannel> closing = new ArrayList<>();
+    for (Iterator<Handle> i = open.values().iterator(); open.size() > maxOpen && i.hasNext();) {
+      Handle h = i.next();
+      if (h.leases > 0)
+        continue;
+      i.remove();
+      h.retired = true;
+      closing.add(h.ch);
+      evictions++;
+    }
+    return closing;
+  }
+
+  private static void closeAll(List<FileChannel> channels) {
+    for (FileChannel ch : channels) {
+      try {
+        ch.close();
+      } catch (IOException e) {
+        // Nothing was written
+      }
+    }
+  }
+
+}
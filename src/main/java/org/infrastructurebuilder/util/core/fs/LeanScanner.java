@@ -0,0 +1,381 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the resource index without ClassGraph, for filesystems that only serve resources.
+ *
+ * Jars are indexed straight from their (memory-mapped) central directory and directories are walked with
+ * {@link Files#walkFileTree}. No class metadata is gathered and nothing is retained beyond the entries themselves.
+ *
+ * Selected with {@code scanEngine=lean}. Honours {@code overrideClasspath} (else {@code java.class.path}),
+ * {@code disableJars}, {@code disableDirs}, {@code disableNestedJars}, {@code acceptPaths} and {@code rejectPaths}
+ * (path prefixes). Other ClassGraph options, including manifest {@code Class-Path} expansion, do not apply.
+ *
+ * Nested jars are read in place. An element may name one as {@code outer.jar!/BOOT-INF/lib/x.jar}, or a package root
+ * within a jar as {@code outer.jar!/BOOT-INF/classes}. A Spring Boot or WAR style fat jar on the classpath is expanded
+ * to its {@code BOOT-INF/classes} (or {@code WEB-INF/classes}) root and every STORED jar under {@code BOOT-INF/lib}
+ * (or {@code WEB-INF/lib}). STORED nested jars, as those layouts require, have their central directories read from the
+ * outer file at the inner jar's offset and their entries served from there, with no extraction. A compressed one cannot
+ * be read in place, so it is inflated to a temporary file that is then an ordinary jar element.
+ *
+ * A scanner can also index one directory at a time ({@link #scan(ScanScheduler, String, boolean)}), for stores that
+ * fill their index on demand. It then keeps the elements and their central directories between scans.
+ */
+public class LeanScanner {
+  private static final String NESTED = "!/";
+  private static final String[][] FAT_LAYOUTS = { { "BOOT-INF/classes/", "BOOT-INF/lib/" },
+      { "WEB-INF/classes/", "WEB-INF/lib/" } };
+
+  /**
+   * Part of a jar as an element: a nested jar, or a package root
+   *
+   * @param outer the jar on disk
+   * @param inner path of a nested jar, or a package root prefix ending in '/'
+   */
+  private record Nested(File outer, String inner) {
+    boolean isJar() {
+      return !inner.endsWith("/");
+    }
+  }
+
+  private final ClasspathConfig config;
+  private final String[] accept;
+  private final String[] reject;
+  private final Map<File, Nested> nested = new ConcurrentHashMap<>();
+  private final Map<File, ZipCentralDirectory> centralDirectories = new ConcurrentHashMap<>();
+  private final Map<File, ZipCentralDirectory.Entry[]> byName = new ConcurrentHashMap<>();
+  private List<File> elements;
+
+  public LeanScanner(ClasspathConfig config) {
+    this.config = config;
+    this.accept = prefixes(config.strArr("acceptPaths"));
+    this.reject = prefixes(config.strArr("rejectPaths"));
+  }
+
+  private static String[] prefixes(String[] paths) {
+    return Arrays.stream(paths).map(String::trim).filter(p -> !p.isEmpty()).map(ClasspathIndex::toPrefix)
+        .toArray(String[]::new);
+  }
+
+  /**
+   * @return existing classpath elements, in classpath order, without duplicates
+   */
+  public synchronized List<File> getElements() {
+    if (this.elements == null)
+      this.elements = Collections.unmodifiableList(findElements());
+    return this.elements;
+  }
+
+  private List<File> findElements() {
+    Object ocp = config.get("overrideClasspath");
+    List<String> raw = new ArrayList<>();
+    if (ocp == null)
+      raw.addAll(Arrays.asList(System.getProperty("java.class.path", "").split(File.pathSeparator)));
+    else if (ocp instanceof Iterable<?> it)
+      it.forEach(o -> raw.add(o.toString()));
+    else
+      raw.addAll(Arrays.asList(ocp.toString().split(File.pathSeparator)));
+    boolean jars = !config.bool("disableJars");
+    boolean dirs = !config.bool("disableDirs");
+    boolean nestedJars = jars && !config.bool("disableNestedJars");
+    Set<File> elements = new LinkedHashSet<>();
+    for (String s : raw) {
+      if (s.isBlank())
+        continue;
+      int bang = s.indexOf(NESTED);
+      if (bang > 0) {
+        File outer = new File(s.substring(0, bang).trim()).getAbsoluteFile();
+        String inner = s.substring(bang + NESTED.length()).trim();
+        if (nestedJars && outer.isFile()) {
+          File f = inner.endsWith(".jar") ? nestedJar(outer, inner)
+              : nestedElement(outer, ClasspathIndex.toPrefix(inner));
+          if (f != null)
+            elements.add(f);
+        }
+        continue;
+      }
+      File f = new File(s.trim()).getAbsoluteFile();
+      if (dirs && f.isDirectory())
+        elements.add(f);
+      else if (jars && f.isFile()) {
+        if (!nestedJars || !expandFatJar(f, elements))
+          elements.add(f);
+      }
+    }
+    return new ArrayList<>(elements);
+  }
+
+  private File nestedElement(File outer, String inner) {
+    File f = new File(outer.getPath() + NESTED + inner);
+    nested.put(f, new Nested(outer, inner));
+    return f;
+  }
+
+  /**
+   * @return the element for jar {@code inner} nested in {@code outer}, or null if it is compressed and cannot be
+   *         extracted
+   */
+  private File nestedJar(File outer, String inner) {
+    ZipCentralDirectory.Entry e;
+    try {
+      e = ZipCentralDirectory.read(outer.toPath()).get(inner).orElse(null);
+    } catch (IOException x) {
+      e = null;
+    }
+    if (e == null || e.isStored())
+      return nestedElement(outer, inner); // Read in place, or let the scan report it
+    return extractNested(outer, e);
+  }
+
+  /**
+   * Inflate a compressed nested jar to a temporary file, removed when the JVM exits
+   *
+   * @return the file, or null if it cannot be written
+   */
+  private static File extractNested(File outer, ZipCentralDirectory.Entry e) {
+    try {
+      Path tmp = Files.createTempFile("nested-", "-" + e.name().substring(e.name().lastIndexOf('/') + 1));
+      tmp.toFile().deleteOnExit();
+      try (InputStream in = ZipCentralDirectory.open(outer.toPath(), e)) {
+        Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+      }
+      return tmp.toFile();
+    } catch (IOException x) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if {@code jar} is a fat jar, whose parts were added to {@code elements}
+   */
+  private boolean expandFatJar(File jar, Set<File> elements) {
+    ZipCentralDirectory cd;
+    try {
+      cd = ZipCentralDirectory.read(jar.toPath());
+    } catch (IOException e) {
+      return false; // Let the scan report it
+    }
+    for (String[] layout : FAT_LAYOUTS) {
+      List<ZipCentralDirectory.Entry> libs = new ArrayList<>();
+      boolean classes = false;
+      for (ZipCentralDirectory.Entry ze : cd.entries()) {
+        String n = ze.name();
+        if (n.startsWith(layout[0]))
+          classes = true;
+        else if (n.startsWith(layout[1]) && n.endsWith(".jar") && n.indexOf('/', layout[1].length()) < 0)
+          libs.add(ze);
+      }
+      if (!classes && libs.isEmpty())
+        continue;
+      if (classes)
+        elements.add(nestedElement(jar, layout[0]));
+      // The central directory is unordered. Launchers use the order of the jar, which this approximates
+      libs.sort(Comparator.comparing(ZipCentralDirectory.Entry::name));
+      for (ZipCentralDirectory.Entry lib : libs) {
+        File f = lib.isStored() ? nestedElement(jar, lib.name()) : extractNested(jar, lib);
+        if (f != null)
+          elements.add(f);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  boolean accepts(String path) {
+    for (String r : reject)
+      if (path.startsWith(r))
+        return false;
+    if (accept.length == 0)
+      return true;
+    for (String a : accept)
+      if (path.startsWith(a))
+        return true;
+    return false;
+  }
+
+  /**
+   * Index every element, largest first.
+   *
+   * @param scheduler runs the per-element work
+   * @return a sorted segment per element, in classpath order
+   */
+  public ScanScheduler.Outcome<ClasspathEntry[]> scan(ScanScheduler scheduler) {
+    return scan(scheduler, "", true);
+  }
+
+  /**
+   * Index what every element holds in one directory.
+   *
+   * @param scheduler runs the per-element work
+   * @param dir       the directory, "" for the root
+   * @param recursive also index its subdirectories
+   * @return a sorted segment per element, in classpath order
+   */
+  public ScanScheduler.Outcome<ClasspathEntry[]> scan(ScanScheduler scheduler, String dir, boolean recursive) {
+    final String prefix = ClasspathIndex.toPrefix(dir);
+    return scheduler.run(ScanScheduler.plan(getElements()), e -> {
+      Nested n = nested.get(e.file());
+      List<ClasspathEntry> found = n != null ? readNested(n, prefix, recursive)
+          : e.directory() ? walk(e.file(), prefix, recursive) : readJar(e.file(), prefix, recursive);
+      return ClasspathIndex.sortSegment(found);
+    });
+  }
+
+  private static boolean inScope(String path, String prefix, boolean recursive) {
+    return path.startsWith(prefix) && (recursive || path.indexOf('/', prefix.length()) < 0);
+  }
+
+  private ZipCentralDirectory centralDirectory(File element, Nested n) throws IOException {
+    ZipCentralDirectory cd = centralDirectories.get(element);
+    if (cd == null) {
+      cd = n != null && n.isJar() ? ZipCentralDirectory.readNested(n.outer().toPath(), n.inner())
+          : ZipCentralDirectory.read((n != null ? n.outer() : element).toPath());
+      centralDirectories.put(element, cd);
+    }
+    return cd;
+  }
+
+  /**
+   * The central directory entries of a jar element whose names start with {@code prefix}. The first narrower read of
+   * a jar sorts its entries by name, so a lookup is a binary search for the run of names sharing the prefix rather
+   * than a pass over the whole central directory.
+   */
+  private Collection<ZipCentralDirectory.Entry> entries(File element, Nested n, String prefix) throws IOException {
+    final ZipCentralDirectory cd = centralDirectory(element, n);
+    if (prefix.isEmpty())
+      return cd.entries();
+    final ZipCentralDirectory.Entry[] sorted = byName.computeIfAbsent(element, k -> cd.entries().stream()
+        .sorted(Comparator.comparing(ZipCentralDirectory.Entry::name)).toArray(ZipCentralDirectory.Entry[]::new));
+    int lo = 0, hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid].name().compareTo(prefix) < 0)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    int end = lo;
+    while (end < sorted.length && sorted[end].name().startsWith(prefix))
+      ++end;
+    return Arrays.asList(sorted).subList(lo, end);
+  }
+
+  private List<ClasspathEntry> readNested(Nested n, String prefix, boolean recursive) throws IOException {
+    List<ClasspathEntry> l = new ArrayList<>();
+    File element = new File(n.outer().getPath() + NESTED + n.inner());
+    if (n.isJar()) {
+      for (ZipCentralDirectory.Entry ze : entries(element, n, prefix))
+        if (!ze.isDirectory() && inScope(ze.name(), prefix, recursive) && accepts(ze.name()))
+          l.add(ElementEntry.ofNested(n.outer(), n.inner(), ze));
+    } else {
+      for (ZipCentralDirectory.Entry ze : entries(element, n, n.inner() + prefix)) {
+        if (ze.isDirectory())
+          continue;
+        String path = ze.name().substring(n.inner().length());
+        if (inScope(path, prefix, recursive) && accepts(path))
+          l.add(ElementEntry.ofJar(n.outer(), path, ze));
+      }
+    }
+    return l;
+  }
+
+  private List<ClasspathEntry> readJar(File jar, String prefix, boolean recursive) throws IOException {
+    Collection<ZipCentralDirectory.Entry> in = entries(jar, null, prefix);
+    List<ClasspathEntry> l = new ArrayList<>(recursive ? in.size() : 16);
+    for (ZipCentralDirectory.Entry ze : in)
+      if (!ze.isDirectory() && inScope(ze.name(), prefix, recursive) && accepts(ze.name()))
+        l.add(ElementEntry.ofJar(jar, ze));
+    return l;
+  }
+
+  private List<ClasspathEntry> walk(File dir, String prefix, boolean recursive) throws IOException {
+    final Path root = dir.toPath();
+    final Path start = prefix.isEmpty() ? root : root.resolve(prefix);
+    final List<ClasspathEntry> l = new ArrayList<>();
+    if (!Files.isDirectory(start))
+      return l;
+    final String sep = root.getFileSystem().getSeparator();
+    Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), recursive ? Integer.MAX_VALUE : 1,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+            if (d.equals(root))
+              return FileVisitResult.CONTINUE;
+            String rel = toRel(d) + "/";
+            // Only descend where something could still be accepted
+            for (String r : reject)
+              if (rel.startsWith(r))
+                return FileVisitResult.SKIP_SUBTREE;
+            if (accept.length == 0)
+              return FileVisitResult.CONTINUE;
+            for (String a : accept)
+              if (rel.startsWith(a) || a.startsWith(rel))
+                return FileVisitResult.CONTINUE;
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (attrs.isRegularFile()) {
+              String rel = toRel(file);
+              if (accepts(rel))
+                l.add(ElementEntry.ofFile(dir, rel, attrs.size()));
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            if (exc instanceof FileSystemLoopException)
+              return FileVisitResult.CONTINUE;
+            throw exc;
+          }
+
+          private String toRel(Path p) {
+            String rel = root.relativize(p).toString();
+            return "/".equals(sep) ? rel : rel.replace(sep, "/");
+          }
+        });
+    return l;
+  }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.lang.ref.WeakReference;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Heap pressure signals for caches.
+ *
+ * Listens for collection-usage-threshold notifications on the heap pools that support them and for GC notifications.
+ * Pressure is judged from the usage of each pool right after its last collection, since the usage before one still
+ * counts garbage. A subscriber is told once when the heap crosses above its threshold (shed), and after every
+ * collection that leaves it below (recover). The JMX listeners are registered once, with the first subscriber, and
+ * serve every filesystem.
+ *
+ * Listeners are held weakly, so a cache that is dropped without being closed unsubscribes itself; subscribers keep
+ * their listener reachable. A collection usage threshold is JVM-wide state. It is only set on a pool that had none, or
+ * a higher one, than the lowest threshold subscribed, and what the pool had is put back when the last subscription
+ * closes.
+ */
+public final class MemoryPressure {
+
+  public interface Listener {
+    /**
+     * The heap has crossed above the subscribed threshold. Not repeated until it has been below it again
+     *
+     * @param usedFraction fill of the fullest heap pool after collection, above the subscribed threshold
+     */
+    void onPressure(double usedFraction);
+
+    /**
+     * The heap is below the subscribed threshold after a collection
+     */
+    void onRelief();
+  }
+
+  /**
+   * A subscription. Closing it stops notifications
+   */
+  public final class Subscription implements AutoCloseable {
+    private final WeakReference<Listener> listener;
+    private final double threshold;
+    private boolean pressured = false;
+
+    private Subscription(Listener listener, double threshold) {
+      this.listener = new WeakReference<>(listener);
+      this.threshold = threshold;
+    }
+
+    public double getThreshold() {
+      return threshold;
+    }
+
+    @Override
+    public void close() {
+      unsubscribe(this);
+    }
+  }
+
+  private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+  private static volatile MemoryPressure instance;
+
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+  private final List<MemoryPoolMXBean> pools;
+  // Thresholds of the pools before the first subscription, while there are any
+  private long[] saved;
+
+  public static MemoryPressure get() {
+    if (instance == null)
+      synchronized (MemoryPressure.class) {
+        if (instance == null)
+          instance = new MemoryPressure();
+      }
+    return instance;
+  }
+
+  private MemoryPressure() {
+    this.pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+        .filter(p -> p.getType() == MemoryType.HEAP && p.isCollectionUsageThresholdSupported()).toList();
+    NotificationListener l = (Notification n, Object handback) -> {
+      String type = n.getType();
+      if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type) || GC_NOTIFICATION.equals(type))
+        signal();
+    };
+    if (ManagementFactory.getMemoryMXBean() instanceof NotificationEmitter e)
+      e.addNotificationListener(l, null, null);
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+      if (gc instanceof NotificationEmitter e)
+        e.addNotificationListener(l, null, null);
+  }
+
+  /**
+   * @param listener  told of pressure and relief. Held weakly
+   * @param threshold fraction of a heap pool's maximum, after collection, above which there is pressure
+   * @return the subscription
+   */
+  public synchronized Subscription subscribe(Listener listener, double threshold) {
+    if (!(threshold > 0.0 && threshold < 1.0))
+      throw new IllegalArgumentException("Memory pressure threshold must be in (0, 1) %s".formatted(threshold));
+    if (saved == null)
+      saved = pools.stream().mapToLong(MemoryPoolMXBean::getCollectionUsageThreshold).toArray();
+    Subscription s = new Subscription(listener, threshold);
+    subscriptions.add(s);
+    setThresholds();
+    return s;
+  }
+
+  private synchronized void unsubscribe(Subscription s) {
+    if (!subscriptions.remove(s))
+      return;
+    if (!subscriptions.isEmpty()) {
+      setThresholds();
+      return;
+    }
+    for (int i = 0; i < pools.size(); ++i)
+      pools.get(i).setCollectionUsageThreshold(saved[i]);
+    saved = null;
+  }
+
+  /**
+   * Set each pool to the lowest threshold subscribed, unless it had a lower one of its own
+   */
+  private void setThresholds() {
+    double lowest = subscriptions.stream().mapToDouble(Subscription::getThreshold).min().orElse(1.0);
+    for (int i = 0; i < pools.size(); ++i) {
+      MemoryPoolMXBean p = pools.get(i);
+      long max = p.getUsage().getMax();
+      if (max <= 0)
+        continue;
+      long t = (long) (max * lowest);
+      p.setCollectionUsageThreshold(saved[i] != 0L && saved[i] < t ? saved[i] : t);
+    }
+  }
+
+  /**
+   * @return fill of the fullest heap pool with a known maximum after its last collection, from 0 to 1
+   */
+  public double getUsedFraction() {
+    double f = 0.0;
+    for (MemoryPoolMXBean p : pools) {
+      MemoryUsage u = p.getCollectionUsage();
+      if (u != null && u.getMax() > 0)
+        f = Math.max(f, u.getUsed() / (double) u.getMax());
+    }
+    return f;
+  }
+
+  synchronized void signal() {
+    double f = getUsedFraction();
+    for (Subscription s : subscriptions) {
+      Listener l = s.listener.get();
+      if (l == null) {
+        s.close();
+        continue;
+      }
+      try {
+        if (f < s.threshold) {
+          s.pressured = false;
+          l.onRelief();
+        } else if (!s.pressured) {
+          s.pressured = true;
+          l.onPressure(f);
+        }
+      } catch (RuntimeException e) {
+        // A misbehaving cache must not break notification delivery to the others
+      }
+    }
+  }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads a stream ahead of its consumer. A background thread (a virtual thread where the runtime has them) fills up
+ * to {@code depth} blocks of the source while the consumer works through the previous one, so inflating overlaps with
+ * whatever the consumer does with the bytes. Blocks are recycled, so a depth of 1 is plain double buffering.
+ *
+ * The source belongs to the background thread from construction on, and that thread closes it. Closing this stream
+ * cancels the read-ahead. The source is closed once the block being read, if any, is done.
+ */
+public final class ReadAheadInputStream extends InputStream {
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  private static final class Block {
+    private final byte[] b;
+    private final int length;
+    private int pos = 0;
+
+    Block(byte[] b, int length) {
+      this.b = b;
+      this.length = length;
+    }
+  }
+
+  private final InputStream source;
+  private final int depth;
+  private final int blockSize;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition filled = lock.newCondition();
+  private final Condition drained = lock.newCondition();
+  private final ArrayDeque<Block> ready = new ArrayDeque<>();
+  private final ArrayDeque<byte[]> free = new ArrayDeque<>();
+  private Block head = null;
+  private boolean eof = false;
+  private boolean cancelled = false;
+  private IOException failure = null;
+
+  /**
+   * @param source    stream to read ahead of. Ownership passes to this instance
+   * @param depth     blocks to read ahead
+   * @param blockSize size of a block
+   */
+  public ReadAheadInputStream(InputStream source, int depth, int blockSize) {
+    this.source = Objects.requireNonNull(source);
+    if (depth < 1 || blockSize < 1)
+      throw new IllegalArgumentException("Bad read-ahead sizing %d/%d".formatted(depth, blockSize));
+    this.depth = depth;
+    this.blockSize = blockSize;
+    ScanScheduler.background().execute(this::fill);
+  }
+
+  private void fill() {
+    try {
+      while (true) {
+        byte[] b;
+        lock.lock();
+        try {
+          while (!cancelled && ready.size() >= depth)
+            drained.await();
+          if (cancelled)
+            return;
+          b = free.isEmpty() ? new byte[blockSize] : free.pop();
+        } finally {
+          lock.unlock();
+        }
+        int n = 0;
+        IOException failed = null;
+        try {
+          for (int r; n < b.length && (r = source.read(b, n, b.length - n)) >= 0;)
+            n += r;
+        } catch (IOException e) {
+          failed = e; // Reported after the bytes read before it
+        }
+        lock.lock();
+        try {
+          if (n > 0)
+            ready.add(new Block(b, n));
+          if (failed != null) {
+            failure = failed;
+            filled.signalAll();
+            return;
+          }
+          eof = n < b.length;
+          filled.signalAll();
+          if (eof)
+            return;
+        } finally {
+          lock.unlock();
+        }
+      }
+    } catch (InterruptedException e) {
+      fail(new InterruptedIOException("Read-ahead interrupted"));
+    } catch (RuntimeException e) {
+      fail(new IOException(e));
+    } finally {
+      try {
+        source.close();
+      } catch (IOException e) {
+        // Nothing was written
+      }
+    }
+  }
+
+  private void fail(IOException e) {
+    lock.lock();
+    try {
+      failure = e;
+      filled.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the block to read from, or null at the end of the content
+   */
+  private Block head() throws IOException {
+    if (head != null && head.pos < head.length)
+      return head;
+    lock.lock();
+    try {
+      if (cancelled)
+        throw new IOException("Stream closed");
+      if (head != null)
+        free.push(head.b);
+      head = null;
+      while (ready.isEmpty() && !eof && failure == null)
+        filled.await();
+      if (ready.isEmpty()) {
+        if (failure != null)
+          throw new IOException(failure.getMessage(), failure);
+        return null;
+      }
+      head = ready.poll();
+      drained.signal();
+      return head;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for read-ahead");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    Block h = head();
+    return h == null ? -1 : h.b[h.pos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (len == 0)
+      return 0;
+    Block h = head();
+    if (h == null)
+      return -1;
+    int n = Math.min(len, h.length - h.pos);
+    System.arraycopy(h.b, h.pos, b, off, n);
+    h.pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    lock.lock();
+    try {
+      long n = head == null ? 0 : head.length - head.pos;
+      for (Block k : ready)
+        n += k.length;
+      return (int) Math.min(Integer.MAX_VALUE, n);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      cancelled = true;
+      ready.clear();
+      free.clear();
+      head = null;
+      drained.signalAll();
+      filled.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Objects;
+
+import io.github.classgraph.Resource;
+
+/**
+ * A {@link ClasspathEntry} found by a ClassGraph scan
+ */
+final class ResourceEntry implements ClasspathEntry {
+  private final Resource resource;
+
+  ResourceEntry(Resource resource) {
+    this.resource = Objects.requireNonNull(resource);
+  }
+
+  Resource getResource() {
+    return resource;
+  }
+
+  @Override
+  public String getPath() {
+    return resource.getPath();
+  }
+
+  @Override
+  public String getPathRelativeToElement() {
+    return resource.getPathRelativeToClasspathElement();
+  }
+
+  @Override
+  public File getElementFile() {
+    return resource.getClasspathElementFile();
+  }
+
+  @Override
+  public long getLength() {
+    return resource.getLength();
+  }
+
+  @Override
+  public URI getURI() {
+    return resource.getURI();
+  }
+
+  @Override
+  public InputStream open() throws IOException {
+    return resource.open();
+  }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the content of one or more resources, in order, as chunks of at most
+ * {@link ByteBufferPool#getBufferSize()} bytes, as many as the subscriber has requested.
+ *
+ * Each subscriber gets its own read. Cached content is published as read-only slices of the cached buffer, and files
+ * and STORED jar entries of at least a chunk as slices of a mapping of the file. Anything else is inflated or read into
+ * two pooled buffers per subscription, taken in turn so that the next chunk is read while one is with the subscriber.
+ * So a chunk is only valid until {@link Flow.Subscriber#onNext(Object)} returns. Copy it to keep it.
+ *
+ * Reads and signals happen on the given executor, one at a time per subscription.
+ */
+public class ResourcePublisher implements Flow.Publisher<ResourcePublisher.Part> {
+
+  /**
+   * @param entry the resource
+   * @param data  the next chunk of its content
+   * @param last  true for its last chunk. A resource with no content is published as one empty, last chunk
+   */
+  public record Part(ClasspathEntry entry, ByteBuffer data, boolean last) {
+  }
+
+  private final ClasspathFileStore store;
+  private final List<ClasspathEntry> entries;
+  private final Executor executor;
+
+  /**
+   * @param store    where the resources are read from
+   * @param entries  resources to publish, in order
+   * @param executor where reads and signals run
+   */
+  public ResourcePublisher(ClasspathFileStore store, List<ClasspathEntry> entries, Executor executor) {
+    this.store = Objects.requireNonNull(store);
+    this.entries = List.copyOf(entries);
+    this.executor = Objects.requireNonNull(executor);
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super Part> subscriber) {
+    Objects.requireNonNull(subscriber);
+    Subscription s = new Subscription(subscriber);
+    subscriber.onSubscribe(s);
+    s.signal();
+  }
+
+  /**
+   * @return a publisher of the content alone, for a single resource
+   */
+  public Flow.Publisher<ByteBuffer> content() {
+    return subscriber -> {
+      Objects.requireNonNull(subscriber);
+      subscribe(new Flow.Subscriber<Part>() {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+          subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(Part item) {
+          subscriber.onNext(item.data());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+          subscriber.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+          subscriber.onComplete();
+        }
+      });
+    };
+  }
+
+  /**
+   * The chunks of one resource
+   */
+  private interface Chunks extends Closeable {
+    /**
+     * @return the next chunk, or null at the end
+     */
+    ByteBuffer next() throws IOException;
+  }
+
+  /**
+   * Read-only slices of content that is already in memory
+   */
+  private static final class Slices implements Chunks {
+    private final ByteBuffer content;
+    private final int size;
+
+    Slices(ByteBuffer content, int size) {
+      this.content = content.asReadOnlyBuffer();
+      this.size = size;
+    }
+
+    @Override
+    public ByteBuffer next() {
+      if (!content.hasRemaining())
+        return null;
+      int n = Math.min(size, content.remaining());
+      ByteBuffer b = content.slice(content.position(), n);
+      content.position(content.position() + n);
+      return b;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * Reads into the subscription's two pooled buffers in turn, so that one more chunk can be read while the previous
+   * one is with the subscriber
+   */
+  private static final class Reads implements Chunks {
+    private final ReadableByteChannel ch;
+    private final ByteBuffer[] bufs;
+    private int turn = 0;
+
+    Reads(ReadableByteChannel ch, ByteBuffer[] bufs) {
+      this.ch = ch;
+      this.bufs = bufs;
+    }
+
+    @Override
+    public ByteBuffer next() throws IOException {
+      ByteBuffer b = bufs[turn ^= 1].clear();
+      while (b.hasRemaining())
+        if (ch.read(b) < 0)
+          break;
+      return b.position() == 0 ? null : b.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+      ch.close();
+    }
+  }
+
+  private final class Subscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super Part> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean cancelled = false;
+    private volatile IllegalArgumentException invalid = null;
+    // Only touched by the draining thread
+    private boolean done = false;
+    private ByteBuffer[] bufs = null;
+    private int next = 0;
+    private ClasspathEntry entry = null;
+    private Chunks chunks = null;
+    private ByteBuffer pending = null;
+
+    Subscription(Flow.Subscriber<? super Part> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0)
+        invalid = new IllegalArgumentException("Non-positive request %d".formatted(n));
+      else
+        demand.getAndAccumulate(n, (d, k) -> d + k < 0 ? Long.MAX_VALUE : d + k);
+      signal();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      signal();
+    }
+
+    void signal() {
+      if (wip.getAndIncrement() == 0)
+        executor.execute(this::drain);
+    }
+
+    private void drain() {
+      int missed = 1;
+      do {
+        if (!done) {
+          try {
+            emit();
+          } catch (IOException | RuntimeException e) {
+            // Once done, the exception came from a terminal signal, which must not be followed by another
+            boolean terminated = done;
+            finish();
+            if (!terminated)
+              subscriber.onError(e);
+          }
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void emit() throws IOException {
+      while (!done) {
+        if (cancelled) {
+          finish();
+        } else if (invalid != null) {
+          finish();
+          subscriber.onError(invalid);
+        } else if (chunks == null && next >= entries.size()) {
+          // Completion needs no demand, so a subscriber that requested exactly what there was is not left waiting
+          finish();
+          subscriber.onComplete();
+        } else if (demand.get() == 0) {
+          return;
+        } else {
+          Part p = nextPart();
+          demand.getAndUpdate(d -> d == Long.MAX_VALUE ? d : d - 1);
+          try {
+            subscriber.onNext(p);
+          } catch (RuntimeException e) {
+            // A subscriber that throws is treated as having cancelled
+            cancelled = true;
+          }
+        }
+      }
+    }
+
+    /**
+     * @return the next part, read one chunk ahead so that the last one is marked. There must be one
+     */
+    private Part nextPart() throws IOException {
+      if (chunks == null) {
+        entry = entries.get(next++);
+        chunks = open(entry);
+        pending = chunks.next();
+        if (pending == null) {
+          closeChunks();
+          return new Part(entry, ByteBuffer.allocate(0), true);
+        }
+      }
+      ByteBuffer b = pending;
+      pending = chunks.next();
+      boolean last = pending == null;
+      if (last)
+        closeChunks();
+      return new Part(entry, b, last);
+    }
+
+    private Chunks open(ClasspathEntry e) throws IOException {
+      int size = ByteBufferPool.shared().getBufferSize();
+      Optional<ByteBuffer> content = store.getContentCache().get(e.getURI().toString());
+      if (content.isEmpty() && e.getLength() >= size)
+        content = store.map(e);
+      if (content.isPresent())
+        return new Slices(content.get(), size);
+      InputStream in = store.newInputStream(e);
+      if (bufs == null)
+        bufs = new ByteBuffer[] { ByteBufferPool.shared().acquire(), ByteBufferPool.shared().acquire() };
+      return new Reads(Channels.newChannel(in), bufs);
+    }
+
+    private void closeChunks() {
+      if (chunks != null) {
+        try {
+          chunks.close();
+        } catch (IOException e) {
+          // Nothing was written
+        }
+      }
+      chunks = null;
+      pending = null;
+    }
+
+    private void finish() {
+      done = true;
+      closeChunks();
+      if (bufs != null)
+        for (ByteBuffer b : bufs)
+          ByteBufferPool.shared().release(b);
+      bufs = null;
+    }
+  }
+
+}
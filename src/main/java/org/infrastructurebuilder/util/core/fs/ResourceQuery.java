@@ -0,0 +1,210 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A query over the resources of a {@link ClasspathIndex}: "every .json under 64 KiB", "everything from this jar", "the
+ * 100 largest".
+ *
+ * Each constraint is a {@link BitSet} of ids from the index's secondary indexes (a directory is a contiguous id range,
+ * an extension, element or length range a precomputed id list) and the query is their intersection. A glob, the only
+ * constraint that needs the path itself, is applied last, to what is left. Changes the index has recorded since it was
+ * built are matched one by one.
+ *
+ * Constraints of the same kind widen the query (several extensions, several elements); constraints of different kinds
+ * narrow it.
+ */
+public class ResourceQuery {
+  private final ClasspathIndex index;
+  private String under = "";
+  private Pattern glob;
+  private final List<String> extensions = new ArrayList<>();
+  private final List<File> elements = new ArrayList<>();
+  private long minLength = 0L;
+  private long maxLength = Long.MAX_VALUE;
+  private boolean lengthBounded = false;
+
+  ResourceQuery(ClasspathIndex index) {
+    this.index = Objects.requireNonNull(index);
+  }
+
+  /**
+   * @param dir only paths below this directory, at any depth
+   */
+  public ResourceQuery under(String dir) {
+    this.under = ClasspathIndex.toPrefix(dir);
+    return this;
+  }
+
+  /**
+   * @param glob only paths matching this glob, as for {@code getPathMatcher("glob:...")}
+   */
+  public ResourceQuery glob(String glob) {
+    this.glob = Pattern.compile(Globs.toUnixRegexPattern(glob));
+    return this;
+  }
+
+  /**
+   * @param extension only paths with this extension, without the dot and in any case, or "" for none
+   */
+  public ResourceQuery extension(String extension) {
+    this.extensions.add(extension.toLowerCase(Locale.ROOT));
+    return this;
+  }
+
+  /**
+   * @param element only paths supplied by this element (a jar, a directory, or a part of a jar as
+   *                {@code outer.jar!/BOOT-INF/lib/x.jar})
+   */
+  public ResourceQuery element(File element) {
+    this.elements.add(Objects.requireNonNull(element));
+    return this;
+  }
+
+  /**
+   * @param min only resources at least this long
+   */
+  public ResourceQuery minLength(long min) {
+    this.minLength = min;
+    this.lengthBounded = true;
+    return this;
+  }
+
+  /**
+   * @param max only resources at most this long
+   */
+  public ResourceQuery maxLength(long max) {
+    this.maxLength = max;
+    this.lengthBounded = true;
+    return this;
+  }
+
+  /**
+   * @return ids in the index's compact form that match. Paths changed since the index was built are not among them
+   */
+  public BitSet ids() {
+    BitSet b = index.under(under);
+    if (!extensions.isEmpty()) {
+      BitSet any = new BitSet(index.size());
+      for (String e : extensions)
+        any.or(index.withExtension(e));
+      b.and(any);
+    }
+    if (!elements.isEmpty()) {
+      BitSet any = new BitSet(index.size());
+      for (File f : elements)
+        any.or(index.ofElement(f));
+      b.and(any);
+    }
+    if (lengthBounded)
+      b.and(index.withLength(minLength, maxLength));
+    b.andNot(index.overlaid());
+    if (glob != null)
+      for (int id = b.nextSetBit(0); id >= 0; id = b.nextSetBit(id + 1))
+        if (!glob.matcher(index.getPath(id)).matches())
+          b.clear(id);
+    return b;
+  }
+
+  /**
+   * @return the matching entries, in path order
+   */
+  public List<ClasspathEntry> entries() {
+    BitSet b = ids();
+    List<ClasspathEntry> l = new ArrayList<>(b.cardinality());
+    for (int id = b.nextSetBit(0); id >= 0; id = b.nextSetBit(id + 1))
+      l.add(index.getEntry(id));
+    List<ClasspathEntry> changed = changed();
+    if (!changed.isEmpty()) {
+      l.addAll(changed);
+      l.sort((x, y) -> ClasspathIndex.comparePaths(x.getPath(), y.getPath()));
+    }
+    return l;
+  }
+
+  /**
+   * @return the matching paths, in order
+   */
+  public List<String> paths() {
+    return entries().stream().map(ClasspathEntry::getPath).toList();
+  }
+
+  /**
+   * @return how many resources match
+   */
+  public int count() {
+    return ids().cardinality() + changed().size();
+  }
+
+  /**
+   * @param n most entries to return
+   * @return the longest matching entries, longest first
+   */
+  public List<ClasspathEntry> largest(int n) {
+    List<ClasspathEntry> l = new ArrayList<>();
+    for (int id : index.longest(ids(), n))
+      l.add(index.getEntry(id));
+    List<ClasspathEntry> changed = changed();
+    if (!changed.isEmpty()) {
+      l.addAll(changed);
+      l.sort(Comparator.comparingLong(ClasspathEntry::getLength).reversed());
+      if (l.size() > n)
+        l = new ArrayList<>(l.subList(0, n));
+    }
+    return l;
+  }
+
+  /**
+   * @return matching entries among those recorded since the index was built
+   */
+  private List<ClasspathEntry> changed() {
+    List<ClasspathEntry> l = new ArrayList<>();
+    for (ClasspathEntry e : index.overlayEntries())
+      if (matches(e))
+        l.add(e);
+    return l;
+  }
+
+  private boolean matches(ClasspathEntry e) {
+    String p = e.getPath();
+    if (!p.startsWith(under))
+      return false;
+    if (!extensions.isEmpty()) {
+      int slash = p.lastIndexOf('/');
+      int dot = p.lastIndexOf('.');
+      String ext = dot > slash ? p.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+      if (!extensions.contains(ext))
+        return false;
+    }
+    if (!elements.isEmpty() && !elements.contains(e.getElementFile()))
+      return false;
+    if (lengthBounded && (e.getLength() < Math.max(minLength, 0L) || e.getLength() > maxLength))
+      return false;
+    return glob == null || glob.matcher(p).matches();
+  }
+
+}
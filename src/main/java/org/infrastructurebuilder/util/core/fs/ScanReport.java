@@ -0,0 +1,111 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.infrastructurebuilder.util.core.fs.ScanScheduler.ExecutorKind;
+import org.infrastructurebuilder.util.core.fs.ScanScheduler.ScanElement;
+
+/**
+ * What a scheduled scan did: how wide it ran, on what, for how long, and how long each classpath element took.
+ *
+ * Under ClassGraph the elements are read by ClassGraph's own work queue, so what is scheduled and timed is only the
+ * build of the index from its results, and the report says so ({@link Phase#INDEX_BUILD}).
+ */
+public class ScanReport {
+
+  public enum Phase {
+    /** Reading the elements */
+    SCAN,
+    /** Building the index from a finished scan */
+    INDEX_BUILD
+  }
+
+  public record ElementTiming(ScanElement element, long nanos) {
+    public long millis() {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+  }
+
+  private final Phase phase;
+  private final ExecutorKind executor;
+  private final int parallelism;
+  private final long wallNanos;
+  private final List<ElementTiming> timings;
+
+  public ScanReport(ExecutorKind executor, int parallelism, long wallNanos, List<ElementTiming> timings) {
+    this(Phase.SCAN, executor, parallelism, wallNanos, timings);
+  }
+
+  public ScanReport(Phase phase, ExecutorKind executor, int parallelism, long wallNanos, List<ElementTiming> timings) {
+    this.phase = phase;
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.wallNanos = wallNanos;
+    this.timings = List.copyOf(timings);
+  }
+
+  /**
+   * @param p what was timed
+   * @return this report, for {@code p}
+   */
+  public ScanReport as(Phase p) {
+    return new ScanReport(p, executor, parallelism, wallNanos, timings);
+  }
+
+  public Phase getPhase() {
+    return phase;
+  }
+
+  public ExecutorKind getExecutor() {
+    return executor;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public long getWallNanos() {
+    return wallNanos;
+  }
+
+  /**
+   * @return per-element timings in classpath order
+   */
+  public List<ElementTiming> getTimings() {
+    return timings;
+  }
+
+  public List<ElementTiming> getSlowest(int n) {
+    return timings.stream().sorted(Comparator.comparingLong(ElementTiming::nanos).reversed()).limit(n).toList();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("%s of %d elements on %s x%d in %d ms".formatted(phase == Phase.SCAN ? "scan" : "index build",
+        timings.size(), executor, parallelism, TimeUnit.NANOSECONDS.toMillis(wallNanos)));
+    for (ElementTiming t : getSlowest(5))
+      sb.append("\n  %6d ms %s".formatted(t.millis(), t.element().file()));
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Schedules per-element scan work.
+ *
+ * Elements are run largest first so that one huge jar starts immediately instead of becoming the straggler at the end
+ * of a queue of tiny ones. The pool is sized from the available cores, widened by the share of exploded directories
+ * (many small files, so latency bound rather than inflate bound), unless {@code threads} pins it.
+ *
+ * Config keys:
+ * <ul>
+ * <li>{@code threads} fixed parallelism</li>
+ * <li>{@code scanIoFactor} threads per core (default: derived from the directory share)</li>
+ * <li>{@code scanExecutor} one of {@code pool} (default, a private pool), {@code forkjoin} (the common pool) or
+ * {@code virtual} (virtual threads where the runtime has them, else {@code pool})</li>
+ * <li>{@code scanExecutorService} an application supplied {@link ExecutorService}. Never shut down by us</li>
+ * </ul>
+ */
+public class ScanScheduler {
+
+  public enum ExecutorKind {
+    POOL, FORKJOIN, VIRTUAL, PROVIDED
+  }
+
+  /**
+   * @param file      the element
+   * @param order     position on the classpath
+   * @param directory true for an exploded directory
+   * @param size      size in bytes, or -1 when not cheaply known
+   */
+  public record ScanElement(File file, int order, boolean directory, long size) {
+  }
+
+  @FunctionalInterface
+  public interface ElementTask<T> {
+    T scan(ScanElement element) throws Exception;
+  }
+
+  /**
+   * Results in classpath order plus the report of the run
+   */
+  public record Outcome<T>(List<T> results, ScanReport report) {
+  }
+
+  /**
+   * An executor for the duration of one scan. Closing shuts it down only if the scheduler created it
+   */
+  public static final class Lease implements AutoCloseable {
+    private final ExecutorService executor;
+    private final boolean owned;
+
+    private Lease(ExecutorService executor, boolean owned) {
+      this.executor = executor;
+      this.owned = owned;
+    }
+
+    public ExecutorService executor() {
+      return executor;
+    }
+
+    @Override
+    public void close() {
+      if (owned)
+        executor.shutdown();
+    }
+  }
+
+  private final Integer threads;
+  private final Double ioFactor;
+  private final ExecutorKind kind;
+  private final ExecutorService provided;
+
+  public ScanScheduler(Integer threads, Double ioFactor, String executor, ExecutorService provided) {
+    this.threads = threads;
+    this.ioFactor = ioFactor;
+    this.provided = provided;
+    if (provided != null)
+      this.kind = ExecutorKind.PROVIDED;
+    else if (executor == null)
+      this.kind = ExecutorKind.POOL;
+    else {
+      ExecutorKind k = ExecutorKind.valueOf(executor.toUpperCase(Locale.ROOT));
+      this.kind = (k == ExecutorKind.VIRTUAL && !hasVirtualThreads()) ? ExecutorKind.POOL : k;
+    }
+  }
+
+  private static boolean hasVirtualThreads() {
+    try {
+      Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  public ExecutorKind getExecutorKind() {
+    return this.kind;
+  }
+
+  /**
+   * @param files elements in classpath order
+   * @return the elements, largest (and unknown sizes, which are directories) first
+   */
+  public static List<ScanElement> plan(List<File> files) {
+    List<ScanElement> l = new ArrayList<>(files.size());
+    for (int i = 0; i < files.size(); ++i) {
+      File f = files.get(i);
+      boolean dir = f != null && f.isDirectory();
+      l.add(new ScanElement(f, i, dir, (f == null || dir) ? -1L : f.length()));
+    }
+    l.sort(LARGEST_FIRST);
+    return l;
+  }
+
+  private static final Comparator<ScanElement> LARGEST_FIRST = Comparator
+      .comparingLong((ScanElement e) -> e.size() < 0 ? Long.MAX_VALUE : e.size()).reversed()
+      .thenComparingInt(ScanElement::order);
+
+  /**
+   * @param plan computes the element plan. Not called if {@code threads} is configured
+   * @return the parallelism to use
+   */
+  public int parallelism(Supplier<List<ScanElement>> plan) {
+    if (threads != null)
+      return Math.max(1, threads);
+    return parallelism(plan.get());
+  }
+
+  public int parallelism(List<ScanElement> plan) {
+    if (threads != null)
+      return Math.max(1, threads);
+    int cores = Runtime.getRuntime().availableProcessors();
+    double factor = ioFactor != null ? ioFactor : 1.0 + dirShare(plan);
+    int p = (int) Math.ceil(cores * factor);
+    return Math.max(1, Math.min(p, Math.max(1, plan.size())));
+  }
+
+  /**
+   * @param tasks number of independent tasks of similar cost
+   * @return the parallelism to use for them
+   */
+  public int parallelism(int tasks) {
+    if (threads != null)
+      return Math.max(1, threads);
+    int cores = Runtime.getRuntime().availableProcessors();
+    int p = (int) Math.ceil(cores * (ioFactor != null ? ioFactor : 1.0));
+    return Math.max(1, Math.min(p, tasks));
+  }
+
+  private static double dirShare(List<ScanElement> plan) {
+    if (plan.isEmpty())
+      return 0.0;
+    return plan.stream().filter(ScanElement::directory).count() / (double) plan.size();
+  }
+
+  public Lease lease(int parallelism) {
+    return switch (kind) {
+    case PROVIDED -> new Lease(provided, false);
+    case FORKJOIN -> new Lease(ForkJoinPool.commonPool(), false);
+    case VIRTUAL -> virtualThreads().map(e -> new Lease(e, true))
+        .orElseGet(() -> new Lease(Executors.newFixedThreadPool(parallelism, DAEMON_THREADS), true));
+    default -> new Lease(Executors.newFixedThreadPool(parallelism, DAEMON_THREADS), true);
+    };
+  }
+
+  static Optional<ExecutorService> virtualThreads() {
+    try {
+      // Compiled for 17, so reach for the 21+ factory reflectively
+      return Optional
+          .of((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Created on first use, so that scans alone never start it
+   */
+  private static final class Background {
+    private static final Executor EXECUTOR = virtualThreads().<Executor>map(e -> e)
+        .orElseGet(() -> Executors.newCachedThreadPool(daemonThreads("classpath-io")));
+  }
+
+  /**
+   * @return threads for blocking reads off the caller's thread: virtual threads where the runtime has them, else a
+   *         cached pool of daemon threads
+   */
+  static Executor background() {
+    return Background.EXECUTOR;
+  }
+
+  private static final ThreadFactory DAEMON_THREADS = daemonThreads("classpath-scan");
+
+  /**
+   * @param prefix thread name prefix, numbered from 1
+   * @return a factory of daemon threads
+   */
+  static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, "%s-%d".formatted(prefix, count.incrementAndGet()));
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  /**
+   * Run {@code task} once per element, largest first, timing each one.
+   *
+   * @param plan elements as returned by {@link #plan(List)}
+   * @param task the per-element work
+   * @return results in classpath order and the timing report
+   */
+  public <T> Outcome<T> run(List<ScanElement> plan, ElementTask<T> task) {
+    Objects.requireNonNull(task);
+    int parallelism = parallelism(plan);
+    List<ScanElement> ordered = new ArrayList<>(plan);
+    ordered.sort(LARGEST_FIRST);
+    long start = System.nanoTime();
+    List<T> results = new ArrayList<>(Collections.nCopies(plan.size(), null));
+    List<ScanReport.ElementTiming> timings = new ArrayList<>(Collections.nCopies(plan.size(), null));
+    try (Lease lease = lease(parallelism)) {
+      List<Future<?>> futures = new ArrayList<>(ordered.size());
+      for (int i = 0; i < ordered.size(); ++i) {
+        final int slot = i;
+        final ScanElement e = ordered.get(i);
+        futures.add(lease.executor().submit(() -> {
+          long t0 = System.nanoTime();
+          try {
+            T r = task.scan(e);
+            synchronized (results) {
+              results.set(slot, r);
+            }
+            return null;
+          } finally {
+            synchronized (timings) {
+              timings.set(slot, new ScanReport.ElementTiming(e, System.nanoTime() - t0));
+            }
+          }
+        }));
+      }
+      for (Future<?> f : futures)
+        f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while scanning", e);
+    } catch (ExecutionException e) {
+      Throwable c = e.getCause();
+      if (c instanceof IOException ioe)
+        throw new UncheckedIOException(ioe);
+      if (c instanceof RuntimeException re)
+        throw re;
+      throw new IllegalStateException(c);
+    }
+    // Back to classpath order
+    List<T> byOrder = new ArrayList<>(Collections.nCopies(plan.size(), null));
+    List<ScanReport.ElementTiming> timingsByOrder = new ArrayList<>(timings.size());
+    Integer[] idx = new Integer[ordered.size()];
+    for (int i = 0; i < idx.length; ++i)
+      idx[i] = i;
+    Arrays.sort(idx, Comparator.comparingInt(i -> ordered.get(i).order()));
+    for (int i = 0; i < idx.length; ++i) {
+      byOrder.set(i, results.get(idx[i]));
+      timingsByOrder.add(timings.get(idx[i]));
+    }
+    return new Outcome<>(byOrder,
+        new ScanReport(kind, parallelism, System.nanoTime() - start, timingsByOrder));
+  }
+
+}
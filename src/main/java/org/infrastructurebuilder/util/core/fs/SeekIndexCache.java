@@ -0,0 +1,125 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@link SeekPointIndex}es of a store, kept within a byte budget.
+ *
+ * An index holds a re-deflated copy of the content plus a dictionary per checkpoint, so it is charged its
+ * {@link SeekPointIndex#getRetainedSize()} once built and the least recently used are dropped past the budget. Channels
+ * still holding a dropped index keep using it, later channels build a new one.
+ */
+public class SeekIndexCache {
+  public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+  /**
+   * Where the channels on one content find, or publish, its index
+   */
+  public final class Slot extends AtomicReference<SeekPointIndex> {
+    private static final long serialVersionUID = 1L;
+    private final transient String key;
+    private long charged = 0L;
+
+    private Slot(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Publish a built index, charging it to the budget
+     *
+     * @param idx the index
+     * @return false if another was published first
+     */
+    public boolean publish(SeekPointIndex idx) {
+      if (!compareAndSet(null, idx))
+        return false;
+      charge(this, idx.getRetainedSize());
+      return true;
+    }
+  }
+
+  private final LinkedHashMap<String, Slot> slots = new LinkedHashMap<>(16, 0.75f, true);
+  private final long budget;
+  private long used = 0L;
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param budget bytes of index to retain. 0 or less retains none
+   */
+  public SeekIndexCache(long budget) {
+    this.budget = Math.max(0L, budget);
+  }
+
+  public boolean isEnabled() {
+    return this.budget > 0L;
+  }
+
+  public long getBudget() {
+    return this.budget;
+  }
+
+  public synchronized long getUsed() {
+    return this.used;
+  }
+
+  public long getEvictions() {
+    return this.evictions.get();
+  }
+
+  /**
+   * @param key content key
+   * @return the slot for {@code key}, or null if disabled
+   */
+  public synchronized Slot slot(String key) {
+    if (!isEnabled())
+      return null;
+    return slots.computeIfAbsent(key, Slot::new);
+  }
+
+  private synchronized void charge(Slot s, long size) {
+    if (slots.get(s.key) != s)
+      return; // Dropped while it was being built
+    s.charged = size;
+    used += size;
+    for (Iterator<Slot> i = slots.values().iterator(); used > budget && i.hasNext();) {
+      Slot o = i.next();
+      if (o.charged == 0L)
+        continue; // Still building
+      i.remove();
+      used -= o.charged;
+      evictions.incrementAndGet();
+    }
+  }
+
+  public synchronized void invalidate(String key) {
+    Slot s = slots.remove(key);
+    if (s != null)
+      used -= s.charged;
+  }
+
+  public synchronized void clear() {
+    slots.clear();
+    used = 0L;
+  }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Random access into large deflated content.
+ *
+ * A deflate stream can only be resumed mid-way with the 32K of content preceding the resume point and a byte-aligned
+ * block boundary. The JDK {@link Inflater} cannot be primed at an arbitrary bit offset of the original jar entry, so
+ * the {@link Builder} re-deflates the content as it is read for the first time, forcing a sync flush (which aligns to a
+ * byte boundary) every {@code interval} bytes and keeping the preceding window as the dictionary for that checkpoint.
+ *
+ * Afterwards a seek only inflates from the nearest checkpoint and bulk reads spanning several checkpoints decode the
+ * segments in parallel.
+ */
+public final class SeekPointIndex {
+  public static final int WINDOW_SIZE = 32 * 1024;
+
+  private final long length;
+  private final int interval;
+  private final byte[] data;
+  private final long[] offsets;
+  private final byte[][] windows;
+
+  private SeekPointIndex(long length, int interval, byte[] data, long[] offsets, byte[][] windows) {
+    this.length = length;
+    this.interval = interval;
+    this.data = data;
+    this.offsets = offsets;
+    this.windows = windows;
+  }
+
+  public static Builder builder(long length, int interval) {
+    return new Builder(length, interval);
+  }
+
+  public long getLength() {
+    return this.length;
+  }
+
+  public int getInterval() {
+    return this.interval;
+  }
+
+  public int getCheckpointCount() {
+    return this.offsets.length;
+  }
+
+  /**
+   * @return retained size of the index in bytes (re-deflated content plus dictionaries)
+   */
+  public long getRetainedSize() {
+    return (long) data.length + (long) WINDOW_SIZE * Math.max(0, windows.length - 1) + 8L * offsets.length;
+  }
+
+  /**
+   * @param pos uncompressed position
+   * @return uncompressed position of the checkpoint at or before {@code pos}
+   */
+  public long checkpointBefore(long pos) {
+    return checkpoint(pos) * (long) interval;
+  }
+
+  private int checkpoint(long pos) {
+    return (int) Math.min(pos / interval, offsets.length - 1);
+  }
+
+  /**
+   * @param pos uncompressed position
+   * @return a stream of the content starting at {@link #checkpointBefore(long)}
+   */
+  public InputStream openStream(long pos) {
+    int k = checkpoint(pos);
+    Inflater inf = new Inflater(true);
+    if (windows[k].length > 0)
+      inf.setDictionary(windows[k]);
+    int from = (int) offsets[k];
+    return new InflaterInputStream(new ByteArrayInputStream(data, from, data.length - from), inf, 8192) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        } finally {
+          inf.end();
+        }
+      }
+    };
+  }
+
+  /**
+   * Positional read. Segments are decoded independently, in parallel when the read spans more than one.
+   *
+   * @param dst buffer to fill
+   * @param pos uncompressed position
+   * @return bytes read or -1 at end of content
+   * @throws IOException on a decoding error
+   */
+  public int read(ByteBuffer dst, long pos) throws IOException {
+    if (pos >= length)
+      return -1;
+    int wanted = (int) Math.min(dst.remaining(), length - pos);
+    if (wanted == 0)
+      return 0;
+    int first = checkpoint(pos);
+    int last = checkpoint(pos + wanted - 1);
+    int base = dst.position();
+    IntStream segments = IntStream.rangeClosed(first, last);
+    if (last > first)
+      segments = segments.parallel();
+    try {
+      segments.forEach(k -> {
+        long from = Math.max(pos, (long) k * interval);
+        long to = (k == offsets.length - 1) ? pos + wanted : Math.min(pos + wanted, (long) (k + 1) * interval);
+        try {
+          decode(from, dst.slice(base + (int) (from - pos), (int) (to - from)));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    dst.position(base + wanted);
+    return wanted;
+  }
+
+  private void decode(long from, ByteBuffer window) throws IOException {
+    try (InputStream in = openStream(from)) {
+      in.skipNBytes(from - checkpointBefore(from));
+      ReadableByteChannel rc = Channels.newChannel(in);
+      while (window.hasRemaining())
+        if (rc.read(window) == -1)
+          throw new IOException("Seek index ran out of bytes at %d".formatted(from));
+    }
+  }
+
+  /**
+   * Fed the content sequentially from the first byte, produces the index once all {@code length} bytes have been seen.
+   * Not thread safe.
+   */
+  public static final class Builder {
+    private final long length;
+    private final int interval;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final byte[] stage = new byte[64 * 1024];
+    private final byte[] out = new byte[64 * 1024];
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private final List<Long> offsets = new ArrayList<>();
+    private final List<byte[]> windows = new ArrayList<>();
+    private byte[] data = new byte[64 * 1024];
+    private int dataSize = 0;
+    private long fed = 0L;
+    private boolean failed = false;
+
+    private Builder(long length, int interval) {
+      if (interval < WINDOW_SIZE)
+        throw new IllegalArgumentException("Seek interval %d is smaller than the deflate window".formatted(interval));
+      this.length = length;
+      this.interval = interval;
+      offsets.add(0L);
+      windows.add(new byte[0]);
+    }
+
+    public long getPosition() {
+      return this.fed;
+    }
+
+    public boolean isComplete() {
+      return !failed && fed == length;
+    }
+
+    /**
+     * @param src the next bytes of content. Its position is not changed
+     */
+    public void update(ByteBuffer src) {
+      if (failed)
+        return;
+      ByteBuffer in = src.duplicate();
+      while (in.hasRemaining()) {
+        long toCheckpoint = interval - (fed % interval);
+        int n = (int) Math.min(Math.min(in.remaining(), stage.length), toCheckpoint);
+        in.get(stage, 0, n);
+        deflater.setInput(stage, 0, n);
+        drain(Deflater.NO_FLUSH);
+        if (failed)
+          return;
+        remember(n);
+        fed += n;
+        if (fed > length) {
+          abandon();
+          return;
+        }
+        if (fed % interval == 0 && fed < length) {
+          drain(Deflater.SYNC_FLUSH);
+          offsets.add((long) dataSize);
+          windows.add(snapshot());
+        }
+      }
+    }
+
+    private void remember(int n) {
+      if (n >= WINDOW_SIZE) {
+        // Only the tail of a big chunk survives in the window
+        int start = n - WINDOW_SIZE;
+        int at = (int) ((fed + start) % WINDOW_SIZE);
+        System.arraycopy(stage, start, window, at, WINDOW_SIZE - at);
+        System.arraycopy(stage, start + WINDOW_SIZE - at, window, 0, at);
+        return;
+      }
+      int w = (int) (fed % WINDOW_SIZE);
+      int first = Math.min(n, WINDOW_SIZE - w);
+      System.arraycopy(stage, 0, window, w, first);
+      if (first < n)
+        System.arraycopy(stage, first, window, 0, n - first);
+    }
+
+    private byte[] snapshot() {
+      if (fed < WINDOW_SIZE)
+        return Arrays.copyOf(window, (int) fed);
+      // The ring slot after the newest byte holds the oldest one
+      int head = (int) (fed % WINDOW_SIZE);
+      byte[] snap = new byte[WINDOW_SIZE];
+      System.arraycopy(window, head, snap, 0, WINDOW_SIZE - head);
+      System.arraycopy(window, 0, snap, WINDOW_SIZE - head, head);
+      return snap;
+    }
+
+    private void drain(int flush) {
+      int n;
+      do {
+        if (failed)
+          return;
+        n = deflater.deflate(out, 0, out.length, flush);
+        append(n);
+      } while (n == out.length || (flush == Deflater.NO_FLUSH && !deflater.needsInput()));
+    }
+
+    private void append(int n) {
+      if (n <= 0 || failed)
+        return;
+      if (dataSize + (long) n > Integer.MAX_VALUE - 8) {
+        abandon();
+        return;
+      }
+      if (dataSize + n > data.length)
+        data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8L, Math.max(data.length * 2L, dataSize + n)));
+      System.arraycopy(out, 0, data, dataSize, n);
+      dataSize += n;
+    }
+
+    /**
+     * @return the index if exactly {@code length} bytes were fed, otherwise empty. The builder is spent either way
+     */
+    public Optional<SeekPointIndex> finish() {
+      if (!isComplete()) {
+        abandon();
+        return Optional.empty();
+      }
+      deflater.finish();
+      while (!failed && !deflater.finished())
+        append(deflater.deflate(out, 0, out.length));
+      deflater.end();
+      if (failed)
+        return Optional.empty();
+      long[] o = offsets.stream().mapToLong(Long::longValue).toArray();
+      return Optional.of(new SeekPointIndex(length, interval, Arrays.copyOf(data, dataSize), o,
+          windows.toArray(new byte[0][])));
+    }
+
+    public void abandon() {
+      if (!failed) {
+        failed = true;
+        deflater.end();
+        data = new byte[0];
+      }
+    }
+  }
+
+}
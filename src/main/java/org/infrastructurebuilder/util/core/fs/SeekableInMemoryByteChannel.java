@@ -21,10 +21,11 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-public class SeekableInMemoryByteChannel implements SeekableByteChannel {
+public class SeekableInMemoryByteChannel implements ClasspathByteChannel {
 
   private static final int NAIVE_RESIZE_LIMIT = Integer.MAX_VALUE >> 1;
   public static final byte[] EMPTY_BYTE_ARRAY = {};
@@ -136,6 +137,42 @@ public class SeekableInMemoryByteChannel implements SeekableByteChannel {
     return wanted;
   }
 
+  @Override
+  public long transferTo(WritableByteChannel target) throws IOException {
+    ensureOpen();
+    if (position >= size)
+      return 0L;
+    ByteBuffer src = ByteBuffer.wrap(data, position, size - position);
+    long total = 0L;
+    while (src.hasRemaining()) {
+      int written = target.write(src);
+      if (written <= 0)
+        break;
+      total += written;
+    }
+    position += (int) total;
+    return total;
+  }
+
+  /**
+   * Positional read. This does not move the channel, but it is only safe against concurrent {@link #write(ByteBuffer)}
+   * calls when the channel is used read-only, which is the case for the classpath filesystem.
+   */
+  @Override
+  public int read(final ByteBuffer buf, final long pos) throws IOException {
+    ensureOpen();
+    if (pos < 0L)
+      throw new IllegalArgumentException("Illegal position " + pos);
+    final byte[] d = data;
+    final int possible = Math.min(size, d.length) - (int) Math.min(pos, Integer.MAX_VALUE);
+    if (possible <= 0) {
+      return -1;
+    }
+    final int wanted = Math.min(buf.remaining(), possible);
+    buf.put(d, (int) pos, wanted);
+    return wanted;
+  }
+
   private void resize(final int newLength) {
     int len = data.length;
     if (len <= 0) {
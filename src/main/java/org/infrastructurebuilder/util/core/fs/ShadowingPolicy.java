@@ -0,0 +1,109 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Which entry supplies a path that several classpath elements hold. The winner is chosen once, when the index is built.
+ */
+public enum ShadowingPolicy {
+  /**
+   * The earliest element on the classpath wins, as with a class loader
+   */
+  CLASSPATH_ORDER,
+  /**
+   * The earliest jar wins over any exploded directory; with no jar among them, classpath order
+   */
+  FIRST_JAR,
+  /**
+   * The latest element on the classpath wins
+   */
+  LAST,
+  /**
+   * Classpath order, but building the index fails if any path is held by more than one element. Jar metadata under
+   * {@code META-INF/} (other than {@code META-INF/services/}) and {@code module-info.class} are exempt, as every jar
+   * has them
+   */
+  ERROR;
+
+  /**
+   * @param name a policy name, case-insensitive, with '-' or '_' ("first-jar", "FIRST_JAR")
+   * @return the policy
+   */
+  public static ShadowingPolicy of(String name) {
+    String n = name.trim().toUpperCase(Locale.ROOT).replace('-', '_');
+    if ("CLASSPATH".equals(n))
+      return CLASSPATH_ORDER;
+    try {
+      return valueOf(n);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown shadowing policy %s".formatted(name), e);
+    }
+  }
+
+  /**
+   * @param candidates entries holding the same path, in classpath order
+   * @return index of the winner
+   */
+  int choose(List<? extends ClasspathEntry> candidates) {
+    switch (this) {
+    case LAST:
+      return candidates.size() - 1;
+    case FIRST_JAR:
+      for (int i = 0; i < candidates.size(); ++i) {
+        File f = candidates.get(i).getElementFile();
+        if (f != null && !f.isDirectory())
+          return i;
+      }
+      return 0;
+    default:
+      return 0;
+    }
+  }
+
+  /**
+   * @param challenger      element newly holding a path
+   * @param challengerOrder its position on the classpath
+   * @param incumbent       element supplying the path now
+   * @param incumbentOrder  its position on the classpath
+   * @return true if {@code challenger} should supply the path instead
+   */
+  boolean prefers(File challenger, int challengerOrder, File incumbent, int incumbentOrder) {
+    switch (this) {
+    case LAST:
+      return challengerOrder > incumbentOrder;
+    case FIRST_JAR:
+      boolean cj = challenger != null && !challenger.isDirectory();
+      boolean ij = incumbent != null && !incumbent.isDirectory();
+      if (cj != ij)
+        return cj;
+      return challengerOrder < incumbentOrder;
+    default:
+      return challengerOrder < incumbentOrder;
+    }
+  }
+
+  static boolean isExempt(String path) {
+    return "module-info.class".equals(path)
+        || (path.startsWith("META-INF/") && !path.startsWith("META-INF/services/"));
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Every path held by more than one classpath element, which element supplies it and which ones it hides.
+ */
+public class ShadowingReport {
+
+  /**
+   * @param path     resource path
+   * @param winner   element supplying {@code path}
+   * @param shadowed elements also holding {@code path}, in classpath order
+   */
+  public record Shadowed(String path, File winner, List<File> shadowed) {
+  }
+
+  private final ShadowingPolicy policy;
+  private final List<Shadowed> shadowed;
+
+  public ShadowingReport(ShadowingPolicy policy, List<Shadowed> shadowed) {
+    this.policy = policy;
+    this.shadowed = List.copyOf(shadowed);
+  }
+
+  public ShadowingPolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * @return shadowed paths in path order
+   */
+  public List<Shadowed> getShadowed() {
+    return shadowed;
+  }
+
+  /**
+   * @param path resource path
+   * @return how {@code path} is shadowed, if it is
+   */
+  public Optional<Shadowed> get(String path) {
+    int lo = 0;
+    int hi = shadowed.size() - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = ClasspathIndex.comparePaths(shadowed.get(mid).path(), path);
+      if (c < 0)
+        lo = mid + 1;
+      else if (c > 0)
+        hi = mid - 1;
+      else
+        return Optional.of(shadowed.get(mid));
+    }
+    return Optional.empty();
+  }
+
+  public int size() {
+    return shadowed.size();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("%d shadowed paths (%s)".formatted(shadowed.size(), policy));
+    for (Shadowed s : shadowed.subList(0, Math.min(5, shadowed.size())))
+      sb.append("\n  %s from %s over %s".formatted(s.path(), s.winner(), s.shadowed()));
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,464 @@
+/*
+ * @formatter:off
+ * Copyright © 2019 admin (admin@infrastructurebuilder.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * @formatter:on
+ */
+package org.infrastructurebuilder.util.core.fs;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip/jar file directly.
+ *
+ * {@link java.util.zip.ZipFile} hides the compression method offsets we need to hand out file regions, so this reads
+ * the (memory-mapped) central directory itself and records, per entry, the method, sizes, CRC and the offset of the
+ * local header. {@link Entry#dataOffset(FileChannel)} resolves the start of the entry data.
+ */
+public final class ZipCentralDirectory {
+  public static final int STORED = 0;
+  public static final int DEFLATED = 8;
+
+  private static final int LOCSIG = 0x04034b50;
+  private static final int CENSIG = 0x02014b50;
+  private static final int ENDSIG = 0x06054b50;
+  private static final int ZIP64_ENDSIG = 0x06064b50;
+  private static final int ZIP64_LOCSIG = 0x07064b50;
+  private static final int LOCHDR = 30;
+  private static final int CENHDR = 46;
+  private static final int ENDHDR = 22;
+  private static final int ZIP64_LOCHDR = 20;
+  private static final int ZIP64_ENDHDR = 56;
+  private static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+
+  public record Entry(String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+
+    public boolean isStored() {
+      return method == STORED;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    /**
+     * @param ch open channel on the zip file this entry came from
+     * @return absolute offset of the first byte of entry data
+     * @throws IOException if the local header cannot be read
+     */
+    public long dataOffset(FileChannel ch) throws IOException {
+      ByteBuffer loc = ByteBuffer.allocate(LOCHDR).order(LITTLE_ENDIAN);
+      readFully(ch, loc, localHeaderOffset);
+      if (loc.getInt(0) != LOCSIG)
+        throw new ZipException("Bad local header for %s at %d".formatted(name, localHeaderOffset));
+      return localHeaderOffset + LOCHDR + Short.toUnsignedInt(loc.getShort(26))
+          + Short.toUnsignedInt(loc.getShort(28));
+    }
+
+    /**
+     * @param zip the whole zip file, mapped or read, of any byte order
+     * @return absolute offset of the first byte of entry data
+     * @throws ZipException if the local header is not where the central directory says
+     */
+    public long dataOffset(ByteBuffer zip) throws ZipException {
+      ByteBuffer loc = zip.duplicate().order(LITTLE_ENDIAN);
+      int at = Math.toIntExact(localHeaderOffset);
+      if (at + LOCHDR > loc.limit() || loc.getInt(at) != LOCSIG)
+        throw new ZipException("Bad local header for %s at %d".formatted(name, localHeaderOffset));
+      return localHeaderOffset + LOCHDR + Short.toUnsignedInt(loc.getShort(at + 26))
+          + Short.toUnsignedInt(loc.getShort(at + 28));
+    }
+  }
+
+  private final Path file;
+  private final long base;
+  private final Map<String, Entry> entries;
+
+  public static ZipCentralDirectory read(Path file) throws IOException {
+    try (FileChannel ch = FileChannel.open(file, READ)) {
+      return new ZipCentralDirectory(file, ch, 0L, ch.size());
+    }
+  }
+
+  /**
+   * Read the central directory of a jar stored (uncompressed) inside another, in place. Entry offsets are absolute
+   * offsets in {@code outer}, so entries are opened from the outer file like any other.
+   *
+   * @param outer the outer jar
+   * @param inner path of the inner jar within {@code outer}, e.g. {@code BOOT-INF/lib/x.jar}
+   * @return the inner jar's central directory
+   * @throws IOException if {@code inner} does not exist, is compressed or is not a jar
+   */
+  public static ZipCentralDirectory readNested(Path outer, String inner) throws IOException {
+    ZipCentralDirectory o = read(outer);
+    Entry e = o.get(inner).orElseThrow(() -> new ZipException("No %s in %s".formatted(inner, outer)));
+    if (!e.isStored())
+      throw new ZipException("Nested jar %s in %s is compressed and cannot be read in place".formatted(inner, outer));
+    try (FileChannel ch = FileChannel.open(outer, READ)) {
+      return new ZipCentralDirectory(outer, ch, e.dataOffset(ch), e.size());
+    }
+  }
+
+  /**
+   * @param file   the file holding the zip
+   * @param ch     open on {@code file}
+   * @param base   offset of the zip within {@code file}
+   * @param length length of the zip
+   */
+  private ZipCentralDirectory(Path file, FileChannel ch, long base, long length) throws IOException {
+    this.file = Objects.requireNonNull(file);
+    this.base = base;
+    long size = length;
+    int tailLen = (int) Math.min(size, ENDHDR + 0xFFFF);
+    long tailPos = size - tailLen;
+    ByteBuffer tail = ByteBuffer.allocate(tailLen).order(LITTLE_ENDIAN);
+    readFully(ch, tail, base + tailPos);
+    int end = -1;
+    for (int i = tailLen - ENDHDR; i >= 0; --i) {
+      if (tail.getInt(i) == ENDSIG) {
+        end = i;
+        break;
+      }
+    }
+    if (end < 0)
+      throw new ZipException("No end of central directory in %s".formatted(file));
+
+    long count = Short.toUnsignedInt(tail.getShort(end + 10));
+    long cenSize = Integer.toUnsignedLong(tail.getInt(end + 12));
+    long cenOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+    // Anything prepended to the archive (launcher scripts, etc) shifts every recorded offset
+    long shift = (tailPos + end - cenSize) - cenOffset;
+    if (count == 0xFFFF || cenSize == ZIP64_MAGICVAL || cenOffset == ZIP64_MAGICVAL) {
+      int locator = end - ZIP64_LOCHDR;
+      if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCSIG) {
+        ByteBuffer z64 = ByteBuffer.allocate(ZIP64_ENDHDR).order(LITTLE_ENDIAN);
+        readFully(ch, z64, base + tail.getLong(locator + 8));
+        if (z64.getInt(0) != ZIP64_ENDSIG)
+          throw new ZipException("Bad zip64 end record in %s".formatted(file));
+        count = z64.getLong(32);
+        cenSize = z64.getLong(40);
+        cenOffset = z64.getLong(48);
+        shift = 0L;
+      }
+    }
+    if (cenOffset + shift < 0 || cenOffset + shift + cenSize > size || cenSize > Integer.MAX_VALUE)
+      throw new ZipException("Bad central directory bounds in %s".formatted(file));
+
+    ByteBuffer cen = ch.map(FileChannel.MapMode.READ_ONLY, base + cenOffset + shift, cenSize).order(LITTLE_ENDIAN);
+    Map<String, Entry> m = new HashMap<>((int) Math.min(count, Integer.MAX_VALUE / 2) * 2);
+    int pos = 0;
+    while (pos + CENHDR <= cenSize) {
+      if (cen.getInt(pos) != CENSIG)
+        throw new ZipException("Bad central directory header in %s at %d".formatted(file, pos));
+      int method = Short.toUnsignedInt(cen.getShort(pos + 10));
+      long crc = Integer.toUnsignedLong(cen.getInt(pos + 16));
+      long csize = Integer.toUnsignedLong(cen.getInt(pos + 20));
+      long usize = Integer.toUnsignedLong(cen.getInt(pos + 24));
+      int nlen = Short.toUnsignedInt(cen.getShort(pos + 28));
+      int elen = Short.toUnsignedInt(cen.getShort(pos + 30));
+      int clen = Short.toUnsignedInt(cen.getShort(pos + 32));
+      long loc = Integer.toUnsignedLong(cen.getInt(pos + 42));
+      byte[] nb = new byte[nlen];
+      cen.get(pos + CENHDR, nb);
+      if (usize == ZIP64_MAGICVAL || csize == ZIP64_MAGICVAL || loc == ZIP64_MAGICVAL) {
+        int e = pos + CENHDR + nlen;
+        int eend = e + elen;
+        while (e + 4 <= eend) {
+          int id = Short.toUnsignedInt(cen.getShort(e));
+          int sz = Short.toUnsignedInt(cen.getShort(e + 2));
+          if (id == 0x0001) {
+            int v = e + 4;
+            if (usize == ZIP64_MAGICVAL && v + 8 <= e + 4 + sz) {
+              usize = cen.getLong(v);
+              v += 8;
+            }
+            if (csize == ZIP64_MAGICVAL && v + 8 <= e + 4 + sz) {
+              csize = cen.getLong(v);
+              v += 8;
+            }
+            if (loc == ZIP64_MAGICVAL && v + 8 <= e + 4 + sz)
+              loc = cen.getLong(v);
+            break;
+          }
+          e += 4 + sz;
+        }
+      }
+      String name = new String(nb, UTF_8);
+      m.putIfAbsent(name, new Entry(name, method, crc, csize, usize, base + loc + shift));
+      pos += CENHDR + nlen + elen + clen;
+    }
+    this.entries = Collections.unmodifiableMap(m);
+  }
+
+  public Path getFile() {
+    return this.file;
+  }
+
+  /**
+   * @return offset of this zip within {@link #getFile()}. Non-zero for a nested jar
+   */
+  public long getBase() {
+    return this.base;
+  }
+
+  public int size() {
+    return this.entries.size();
+  }
+
+  public Optional<Entry> get(String name) {
+    return Optional.ofNullable(this.entries.get(name));
+  }
+
+  public Collection<Entry> entries() {
+    return this.entries.values();
+  }
+
+  /**
+   * @param e an entry of this directory
+   * @return a stream of the (inflated) entry content
+   * @throws IOException if the entry cannot be opened or uses an unsupported compression method
+   */
+  public InputStream open(Entry e) throws IOException {
+    return open(this.file, e);
+  }
+
+  /**
+   * Open an entry from its central directory record alone, without holding on to the directory
+   *
+   * @param file the zip file
+   * @param e    an entry of {@code file}
+   * @return a stream of the (inflated) entry content
+   * @throws IOException if the entry cannot be opened or uses an unsupported compression method
+   */
+  static InputStream open(Path file, Entry e) throws IOException {
+    if (!e.isStored() && e.method() != DEFLATED)
+      throw new ZipException("Unsupported compression method %d for %s".formatted(e.method(), e.name()));
+    FileChannel ch = FileChannel.open(file, READ);
+    if (e.isStored())
+      return open(ch, e, null, ch);
+    Inflater inf = new Inflater(true);
+    return open(ch, e, inf, () -> {
+      inf.end();
+      ch.close();
+    });
+  }
+
+  /**
+   * Open an entry on a channel that may be shared. Only positional reads are made on {@code ch}
+   *
+   * @param ch      channel on the zip file
+   * @param e       an entry of that file
+   * @param inf     a fresh or reset raw inflater, for DEFLATED entries
+   * @param release gives back {@code ch} and {@code inf} when the stream is closed, or at once if it cannot be opened
+   * @return a stream of the (inflated) entry content
+   * @throws IOException if the entry cannot be opened or uses an unsupported compression method
+   */
+  static InputStream open(FileChannel ch, Entry e, Inflater inf, Closeable release) throws IOException {
+    try {
+      if (!e.isStored() && e.method() != DEFLATED)
+        throw new ZipException("Unsupported compression method %d for %s".formatted(e.method(), e.name()));
+      long start = e.dataOffset(ch);
+      if (e.isStored())
+        return new RegionInputStream(ch, start, e.compressedSize(), release);
+      return new InflatingInputStream(ch, e, start, Objects.requireNonNull(inf), ByteBufferPool.shared(), release);
+    } catch (IOException | RuntimeException ex) {
+      release.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * Bounded positional reads over a file region. Closing it runs {@code release}
+   */
+  static final class RegionInputStream extends InputStream {
+    private final FileChannel ch;
+    private final Closeable release;
+    private final long end;
+    private long pos;
+    private boolean closed = false;
+
+    RegionInputStream(FileChannel ch, long start, long length, Closeable release) {
+      this.ch = ch;
+      this.release = release;
+      this.pos = start;
+      this.end = start + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      Objects.checkFromIndexSize(off, len, b.length);
+      if (closed)
+        throw new IOException("Stream closed");
+      if (pos >= end)
+        return -1;
+      if (len == 0)
+        return 0;
+      int n = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+      if (n > 0)
+        pos += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      long k = Math.max(0L, Math.min(n, end - pos));
+      pos += k;
+      return k;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, end - pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed)
+        return;
+      closed = true;
+      release.close();
+    }
+  }
+
+  /**
+   * Inflates a DEFLATED entry straight from the file. Compressed bytes are read into a pooled direct buffer and
+   * inflated into the caller's array, with no intermediate copy. Closing it runs {@code release}
+   */
+  static final class InflatingInputStream extends InputStream {
+    private final FileChannel ch;
+    private final Entry e;
+    private final ByteBufferPool pool;
+    private final Inflater inf;
+    private final Closeable release;
+    private ByteBuffer in;
+    private long pos;
+    private final long end;
+    private boolean padded = false;
+
+    /**
+     * @param ch      channel on the zip file, only read positionally
+     * @param start   offset of the entry data
+     * @param inf     raw inflater, fresh or reset
+     * @param release gives back {@code ch} and {@code inf} on close
+     */
+    InflatingInputStream(FileChannel ch, Entry e, long start, Inflater inf, ByteBufferPool pool, Closeable release) {
+      this.ch = ch;
+      this.e = e;
+      this.pool = pool;
+      this.inf = inf;
+      this.release = release;
+      this.pos = start;
+      this.end = start + e.compressedSize();
+      this.in = pool.acquire().limit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      Objects.checkFromIndexSize(off, len, b.length);
+      if (in == null)
+        throw new IOException("Stream closed");
+      if (len == 0)
+        return 0;
+      while (!inf.finished()) {
+        int n;
+        try {
+          n = inf.inflate(b, off, len);
+        } catch (DataFormatException ex) {
+          throw new ZipException("Corrupt entry %s: %s".formatted(e.name(), ex.getMessage()));
+        }
+        if (n > 0)
+          return n;
+        if (inf.needsDictionary())
+          throw new ZipException("Entry %s needs a preset dictionary".formatted(e.name()));
+        if (inf.needsInput())
+          fill();
+      }
+      return -1;
+    }
+
+    private void fill() throws IOException {
+      in.clear();
+      if (pos >= end) {
+        if (padded)
+          throw new EOFException("Unexpected end of %s".formatted(e.name()));
+        // A raw inflater may want one byte past the end of the data
+        in.put((byte) 0);
+        padded = true;
+      } else {
+        in.limit((int) Math.min(in.capacity(), end - pos));
+        int n = ch.read(in, pos);
+        if (n < 0)
+          throw new EOFException("Unexpected end of %s".formatted(e.name()));
+        pos += n;
+      }
+      inf.setInput(in.flip());
+    }
+
+    @Override
+    public int available() {
+      return in == null || inf.finished() ? 0 : (int) Math.min(Integer.MAX_VALUE, e.size() - inf.getBytesWritten());
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (in == null)
+        return;
+      pool.release(in);
+      in = null;
+      release.close();
+    }
+  }
+
+  static void readFully(FileChannel ch, ByteBuffer dst, long position) throws IOException {
+    long p = position;
+    while (dst.hasRemaining()) {
+      int read = ch.read(dst, p);
+      if (read < 0)
+        throw new EOFException("Unexpected end of file at %d".formatted(p));
+      p += read;
+    }
+  }
+
+}
@@ -17,13 +17,19 @@
  */
 package org.infrastructurebuilder.util.core.urlstream;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.net.spi.URLStreamHandlerProvider;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Optional;
+
+import org.infrastructurebuilder.util.core.fs.ClasspathFilesystemProvider;
 
 public class ClasspathURLStreamHandlerProvider extends URLStreamHandlerProvider {
+  private volatile Optional<ClasspathFilesystemProvider> fsProvider;
 
   public ClasspathURLStreamHandlerProvider() {
     System.out.println("Loaded " + getClass().getCanonicalName());
@@ -35,11 +41,26 @@ public class ClasspathURLStreamHandlerProvider extends URLStreamHandlerProvider
       return new URLStreamHandler() {
         @Override
         protected URLConnection openConnection(URL u) throws IOException {
-          return ClassLoader.getSystemClassLoader().getResource(u.getPath()).openConnection();
+          String path = u.getPath();
+          // Probes for optional resources are mostly misses. Let the classpath filesystem reject them if it can
+          if (getFilesystemProvider().map(p -> p.isKnownAbsent(path)).orElse(false))
+            throw new FileNotFoundException(path);
+          URL r = ClassLoader.getSystemClassLoader().getResource(path);
+          if (r == null)
+            throw new FileNotFoundException(path);
+          return r.openConnection();
         }
       };
     }
     return null;
   }
 
+  private Optional<ClasspathFilesystemProvider> getFilesystemProvider() {
+    if (fsProvider == null)
+      fsProvider = FileSystemProvider.installedProviders().stream()
+          .filter(ClasspathFilesystemProvider.class::isInstance).map(ClasspathFilesystemProvider.class::cast)
+          .findFirst();
+    return fsProvider;
+  }
+
 }